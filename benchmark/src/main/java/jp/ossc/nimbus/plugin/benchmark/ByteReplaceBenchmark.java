@@ -0,0 +1,156 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import jp.ossc.nimbus.plugin.ByteScanner;
+import jp.ossc.nimbus.plugin.MarkerReplacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * ファイル1つ分のマーカー置換のベンチマーク。<p>
+ * replaceゴールの、文字にデコードして行毎に置換する経路と、{@link ByteScanner}でバイト列のまま置換する経路を、
+ * エンコーディングとマーカーの密度毎に計測する。<br>
+ * 2バイト文字の2バイト目がASCIIの範囲と重なる場合を含めるため、日本語のコメント行を混在させる。<br>
+ * 割り当て量は、"-prof gc"を指定して実行し、gc.alloc.rate.normで比較する。<br>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ByteReplaceBenchmark {
+    
+    private static final String LINE_SEP = "\n";
+    
+    private static final String COMMENT_LINE = "        // ソース表示用の値を計算する";
+    
+    @Param({"UTF-8", "windows-31j"})
+    public String encoding;
+    
+    @Param({"0.05", "0.5"})
+    public double markerDensity;
+    
+    @Param({"1000"})
+    public int lineCount;
+    
+    private byte[] data;
+    
+    private MarkerReplacer replacer;
+    
+    private ByteScanner scanner;
+    
+    private byte[][][] replacements;
+    
+    @Setup
+    public void setup() throws Exception {
+        final String[] lines = new SyntheticSource(1).lines(lineCount, markerDensity);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            sb.append(i % 4 == 0 ? COMMENT_LINE : lines[i]).append(LINE_SEP);
+        }
+        data = sb.toString().getBytes(encoding);
+        replacer = new MarkerReplacer("17", SyntheticSource.CHECK_VERSIONS, SyntheticSource.CHECK_TARGET_PREFIX);
+        scanner = new ByteScanner(encoding, SyntheticSource.CHECK_VERSIONS, SyntheticSource.CHECK_TARGET_PREFIX);
+        replacements = new byte[][][] {scanner.createReplacements(replacer)};
+    }
+    
+    /**
+     * 文字にデコードして行毎に置換し、エンコードして書き込む。<p>
+     */
+    @Benchmark
+    public void charPath(Blackhole blackhole) throws Exception {
+        final CountingOutputStream out = new CountingOutputStream();
+        final BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), encoding));
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, encoding));
+        String line = null;
+        while ((line = br.readLine()) != null) {
+            writer.write(replacer.replace(line));
+            writer.write(LINE_SEP);
+        }
+        writer.close();
+        br.close();
+        blackhole.consume(out.count);
+    }
+    
+    /**
+     * バイト列のまま置換して書き込む。<p>
+     */
+    @Benchmark
+    public void bytePath(Blackhole blackhole) throws Exception {
+        final CountingOutputStream out = new CountingOutputStream();
+        final OutputStream[] outs = new OutputStream[] {new BufferedOutputStream(out)};
+        scanner.replace(ByteBuffer.wrap(data), replacements, outs, LINE_SEP);
+        outs[0].close();
+        blackhole.consume(out.count);
+    }
+    
+    /**
+     * 書き込んだバイト数だけを数える出力先。<p>
+     * ファイルへの書き込みのコストを除いて、置換そのものを比較するために使用する。<br>
+     */
+    private static class CountingOutputStream extends OutputStream {
+        
+        long count;
+        
+        public void write(int b) {
+            count++;
+        }
+        
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import jp.ossc.nimbus.plugin.FileFilter;
+import jp.ossc.nimbus.plugin.FileUtility;
+
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.apache.maven.plugin.testing.SilentLog;
+
+/**
+ * copyゴールとreplaceゴールのエンドツーエンドのベンチマーク。<p>
+ * 指定されたファイル数の合成ソースツリーを生成し、maven-plugin-testing-harnessでゴールを構成して実行し、
+ * 経過時間、ファイル毎秒、バイト毎秒、ヒープの最大使用量を出力する。<br>
+ * 引数にファイル数を列挙する。省略した場合は、1000と10000で実行する。<br>
+ * 以下のシステムプロパティで、生成するソースと実行条件を変更できる。<br>
+ * <table border="1">
+ *   <tr><th>システムプロパティ</th><th>意味</th><th>デフォルト</th></tr>
+ *   <tr><td>benchmark.dir</td><td>ソースツリーを生成するディレクトリ。同じ条件のソースツリーが存在する場合は再利用する</td><td>${java.io.tmpdir}/nimbus-version-filecontrol-benchmark</td></tr>
+ *   <tr><td>benchmark.packageCount</td><td>パッケージ数</td><td>ファイル数/50</td></tr>
+ *   <tr><td>benchmark.lineCount</td><td>ファイル毎の本体の行数</td><td>40</td></tr>
+ *   <tr><td>benchmark.markerDensity</td><td>行がマーカーを含む確率</td><td>0.05</td></tr>
+ *   <tr><td>benchmark.conditionRatio</td><td>バージョン条件のヘッダ行を含むファイルの割合</td><td>0.5</td></tr>
+ *   <tr><td>benchmark.threads</td><td>ゴールのthreadsパラメータ</td><td>利用可能なプロセッサ数</td></tr>
+ * </table>
+ */
+public class GoalBenchmark extends AbstractMojoTestCase {
+    
+    private static final String PLUGIN_GROUP_ID = "com.github.nimbus-org";
+    
+    private static final String PLUGIN_ARTIFACT_ID = "nimbus-version-filecontrol-maven-plugin";
+    
+    private static final String PLUGIN_VERSION = "1.0";
+    
+    private static final String TARGET_VERSION = "17";
+    
+    private final File workDir = new File(System.getProperty(
+        "benchmark.dir",
+        new File(System.getProperty("java.io.tmpdir"), "nimbus-version-filecontrol-benchmark").getPath()
+    ));
+    
+    private final int lineCount = Integer.getInteger("benchmark.lineCount", 40).intValue();
+    
+    private final double markerDensity = Double.parseDouble(System.getProperty("benchmark.markerDensity", "0.05"));
+    
+    private final double conditionRatio = Double.parseDouble(System.getProperty("benchmark.conditionRatio", "0.5"));
+    
+    private final int threads = Integer.getInteger("benchmark.threads", Runtime.getRuntime().availableProcessors()).intValue();
+    
+    public static void main(String[] args) throws Exception {
+        int[] fileCounts = {1000, 10000};
+        if (args.length != 0) {
+            fileCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                fileCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        final GoalBenchmark benchmark = new GoalBenchmark();
+        benchmark.setUp();
+        try {
+            System.out.println(String.format(
+                "%-8s %10s %14s %12s %14s %16s %14s",
+                "goal", "files", "bytes", "wall(ms)", "files/sec", "bytes/sec", "peakHeap(MB)"
+            ));
+            for (int fileCount : fileCounts) {
+                benchmark.run(fileCount);
+            }
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+    
+    /**
+     * 指定されたファイル数のソースツリーで、copyゴールとreplaceゴールを実行する。<p>
+     *
+     * @param fileCount ファイル数
+     * @exception Exception ソースツリーの生成、またはゴールの実行に失敗した場合
+     */
+    public void run(int fileCount) throws Exception {
+        final int packageCount = Integer.getInteger("benchmark.packageCount", Math.max(1, fileCount / 50)).intValue();
+        final File root = new File(
+            workDir,
+            "corpus-" + fileCount + '-' + packageCount + '-' + lineCount + '-' + markerDensity + '-' + conditionRatio
+        );
+        final File sourceDir = new File(root, "src");
+        if (!sourceDir.exists()) {
+            new SyntheticSource(fileCount).writeTree(root, fileCount, packageCount, lineCount, markerDensity, conditionRatio);
+        }
+        final File[] sources = new FileUtility(sourceDir).listAllTreeFiles(
+            new FileFilter(".*\\." + SyntheticSource.FROM_FILE_EXTENTION)
+        );
+        long bytes = 0;
+        for (File source : sources) {
+            bytes += source.length();
+        }
+        final File outDir = new File(root, "out");
+        final StringBuilder copyConfiguration = new StringBuilder();
+        copyConfiguration.append("<version>").append(TARGET_VERSION).append("</version>");
+        copyConfiguration.append("<fromDir>").append(new File(sourceDir, "main/java16").getAbsolutePath()).append("</fromDir>");
+        copyConfiguration.append("<toDir>").append(new File(outDir, "copy").getAbsolutePath()).append("</toDir>");
+        copyConfiguration.append("<fromFileExtention>").append(SyntheticSource.FROM_FILE_EXTENTION).append("</fromFileExtention>");
+        copyConfiguration.append("<checkTarget>").append(SyntheticSource.CHECK_TARGET).append("</checkTarget>");
+        copyConfiguration.append("<encoding>UTF-8</encoding>");
+        copyConfiguration.append("<threads>").append(threads).append("</threads>");
+        
+        final StringBuilder replaceConfiguration = new StringBuilder();
+        replaceConfiguration.append("<version>").append(TARGET_VERSION).append("</version>");
+        replaceConfiguration.append("<checkVersions>");
+        for (String checkVersion : SyntheticSource.CHECK_VERSIONS) {
+            replaceConfiguration.append("<checkVersion>").append(checkVersion).append("</checkVersion>");
+        }
+        replaceConfiguration.append("</checkVersions>");
+        replaceConfiguration.append("<fromDir>").append(root.getAbsolutePath()).append("</fromDir>");
+        replaceConfiguration.append("<toDir>").append(new File(outDir, "replace").getAbsolutePath()).append("</toDir>");
+        replaceConfiguration.append("<replaceTargetDirs><replaceTargetDir>src/**</replaceTargetDir></replaceTargetDirs>");
+        replaceConfiguration.append("<fromFileExtention>").append(SyntheticSource.FROM_FILE_EXTENTION).append("</fromFileExtention>");
+        replaceConfiguration.append("<checkTargetPrefix>").append(SyntheticSource.CHECK_TARGET_PREFIX).append("</checkTargetPrefix>");
+        replaceConfiguration.append("<encoding>UTF-8</encoding>");
+        replaceConfiguration.append("<threads>").append(threads).append("</threads>");
+        
+        FileUtility.deleteAllTree(outDir, true);
+        execute("copy", writePom(new File(root, "pom-copy.xml"), copyConfiguration.toString()), sources.length, bytes);
+        execute("replace", writePom(new File(root, "pom-replace.xml"), replaceConfiguration.toString()), sources.length, bytes);
+    }
+    
+    private void execute(String goal, File pom, int fileCount, long bytes) throws Exception {
+        // lookupMojo(String, File)はカレントディレクトリのpom.xmlからプラグインのartifactIdを取得するため、明示的に指定する
+        final Mojo mojo = lookupMojo(
+            PLUGIN_GROUP_ID,
+            PLUGIN_ARTIFACT_ID,
+            PLUGIN_VERSION,
+            goal,
+            extractPluginConfiguration(PLUGIN_ARTIFACT_ID, pom)
+        );
+        mojo.setLog(new SilentLog());
+        
+        System.gc();
+        final List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        final long start = System.nanoTime();
+        mojo.execute();
+        final long elapsed = System.nanoTime() - start;
+        // プール毎の最大値の合計なので、同時点のヒープ使用量の上限値となる
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        final double seconds = elapsed / 1000000000.0d;
+        System.out.println(String.format(
+            "%-8s %10d %14d %12d %14.1f %16.1f %14.1f",
+            goal,
+            fileCount,
+            bytes,
+            elapsed / 1000000L,
+            fileCount / seconds,
+            bytes / seconds,
+            peakHeap / (1024.0d * 1024.0d)
+        ));
+    }
+    
+    private File writePom(File pom, String configuration) throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(pom), "UTF-8");
+        try {
+            writer.write("<project>");
+            writer.write("<modelVersion>4.0.0</modelVersion>");
+            writer.write("<groupId>jp.ossc.sample</groupId>");
+            writer.write("<artifactId>benchmark-corpus</artifactId>");
+            writer.write("<version>1.0</version>");
+            writer.write("<build><plugins><plugin>");
+            writer.write("<artifactId>" + PLUGIN_ARTIFACT_ID + "</artifactId>");
+            writer.write("<configuration>" + configuration + "</configuration>");
+            writer.write("</plugin></plugins></build>");
+            writer.write("</project>");
+        } finally {
+            writer.close();
+        }
+        return pom;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * ベンチマーク用の合成ソースを生成するユーティリティ。<p>
+ * パッケージ階層を持つディレクトリツリー、チェック対象文字列を含むヘッダ行、"@START"/"@END"マーカーを含む行を、
+ * 指定された規模と密度で決定的に生成する。<br>
+ */
+public class SyntheticSource {
+    
+    /**
+     * 生成するファイルの拡張子。<p>
+     */
+    public static final String FROM_FILE_EXTENTION = "java16";
+    
+    /**
+     * 生成するヘッダのチェック対象文字列。<p>
+     */
+    public static final String CHECK_TARGET = "JAVA_VERSION";
+    
+    /**
+     * 生成するマーカーのバージョン接頭辞。<p>
+     */
+    public static final String CHECK_TARGET_PREFIX = "JAVA";
+    
+    /**
+     * 生成するマーカーおよびヘッダで使用するバージョン。<p>
+     */
+    public static final String[] CHECK_VERSIONS = {"8", "11", "17", "21"};
+    
+    private static final String[] OPERATORS = {"=", ">", ">=", "<", "<="};
+    
+    private static final String[] CONDITIONS = {
+        "// 8 <= " + CHECK_TARGET,
+        "// " + CHECK_TARGET + " < 11",
+        "// 11 <= " + CHECK_TARGET + " < 17",
+        "// " + CHECK_TARGET + " = 17",
+        "// 17 < " + CHECK_TARGET + " <= 21"
+    };
+    
+    private final Random random;
+    
+    /**
+     * 指定されたシードで生成するインスタンスを生成する。<p>
+     *
+     * @param seed 乱数のシード
+     */
+    public SyntheticSource(long seed) {
+        random = new Random(seed);
+    }
+    
+    /**
+     * バージョン条件のヘッダ行を生成する。<p>
+     *
+     * @return ヘッダ行
+     */
+    public String conditionLine() {
+        return CONDITIONS[random.nextInt(CONDITIONS.length)];
+    }
+    
+    /**
+     * ソースの1行を生成する。<p>
+     *
+     * @param markerDensity 行がマーカーを含む確率
+     * @return 行
+     */
+    public String line(double markerDensity) {
+        if (random.nextDouble() < markerDensity) {
+            final String version = CHECK_VERSIONS[random.nextInt(CHECK_VERSIONS.length)];
+            final String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+            return "        /*@START" + operator + CHECK_TARGET_PREFIX + version + "@*/ value = compute(value, "
+                + random.nextInt(1000) + "); /*@END" + operator + CHECK_TARGET_PREFIX + version + "@*/";
+        }
+        return "        value = value * 31 + " + random.nextInt(1000) + "; // " + Long.toHexString(random.nextLong());
+    }
+    
+    /**
+     * ソースの行配列を生成する。<p>
+     *
+     * @param lineCount 行数
+     * @param markerDensity 行がマーカーを含む確率
+     * @return 行配列
+     */
+    public String[] lines(int lineCount, double markerDensity) {
+        final String[] lines = new String[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            lines[i] = line(markerDensity);
+        }
+        return lines;
+    }
+    
+    /**
+     * ソースファイルを生成する。<p>
+     *
+     * @param file 生成するファイル
+     * @param packageName パッケージ名
+     * @param lineCount 本体の行数
+     * @param markerDensity 行がマーカーを含む確率
+     * @param hasCondition バージョン条件のヘッダ行を含める場合true
+     * @exception IOException ファイルの書き込みに失敗した場合
+     */
+    public void writeSource(File file, String packageName, int lineCount, double markerDensity, boolean hasCondition) throws IOException {
+        if (!file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        final String className = file.getName().substring(0, file.getName().indexOf('.'));
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("/*\n * generated source\n */\n");
+            if (hasCondition) {
+                writer.write(conditionLine());
+                writer.write('\n');
+            }
+            writer.write("package " + packageName + ";\n\n");
+            writer.write("public class " + className + " {\n");
+            writer.write("    public int run(int value) {\n");
+            for (int i = 0; i < lineCount; i++) {
+                writer.write(line(markerDensity));
+                writer.write('\n');
+            }
+            writer.write("        return value;\n    }\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+    
+    /**
+     * パッケージ階層を持つソースツリーを生成する。<p>
+     * ファイルは"src/main/java16"配下に、指定された数のパッケージに均等に配置される。<br>
+     *
+     * @param root ルートディレクトリ
+     * @param fileCount ファイル数
+     * @param packageCount パッケージ数
+     * @param lineCount ファイル毎の本体の行数
+     * @param markerDensity 行がマーカーを含む確率
+     * @param conditionRatio バージョン条件のヘッダ行を含むファイルの割合
+     * @exception IOException ファイルの書き込みに失敗した場合
+     */
+    public void writeTree(File root, int fileCount, int packageCount, int lineCount, double markerDensity, double conditionRatio) throws IOException {
+        for (int i = 0; i < fileCount; i++) {
+            final int packageIndex = i % packageCount;
+            final String packageName = "jp.ossc.sample.p" + (packageIndex % 10) + ".q" + (packageIndex / 10);
+            final File dir = new File(root, "src/main/java16/" + packageName.replace('.', '/'));
+            writeSource(
+                new File(dir, "Sample" + i + "." + FROM_FILE_EXTENTION),
+                packageName,
+                lineCount,
+                markerDensity,
+                random.nextDouble() < conditionRatio
+            );
+        }
+    }
+    
+    /**
+     * 指定されたサイズのバイナリファイルを生成する。<p>
+     *
+     * @param file 生成するファイル
+     * @param size ファイルサイズ
+     * @exception IOException ファイルの書き込みに失敗した場合
+     */
+    public void writeBinary(File file, long size) throws IOException {
+        if (!file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        final FileOutputStream fos = new FileOutputStream(file);
+        try {
+            final byte[] buf = new byte[65536];
+            long rest = size;
+            while (rest > 0) {
+                random.nextBytes(buf);
+                final int length = (int) Math.min(buf.length, rest);
+                fos.write(buf, 0, length);
+                rest -= length;
+            }
+        } finally {
+            fos.close();
+        }
+    }
+}
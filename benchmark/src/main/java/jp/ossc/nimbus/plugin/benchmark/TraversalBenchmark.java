@@ -0,0 +1,112 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import jp.ossc.nimbus.plugin.FileFilter;
+import jp.ossc.nimbus.plugin.FileUtility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ディレクトリ走査のベンチマーク。<p>
+ * 合成したソースツリーに対して、copyゴールとreplaceゴールが使用するパスの正規表現による検索と、フィルタによる全件検索を計測する。<br>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TraversalBenchmark {
+    
+    @Param({"1000", "10000"})
+    public int fileCount;
+    
+    @Param({"100"})
+    public int packageCount;
+    
+    private File root;
+    
+    private FileUtility fromDir;
+    
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("traversal-benchmark").toFile();
+        new SyntheticSource(1).writeTree(root, fileCount, packageCount, 0, 0.0d, 0.5d);
+        fromDir = new FileUtility(root);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtility.deleteAllTree(root, true);
+    }
+    
+    /**
+     * copyゴールと同じパスの正規表現で検索する。<p>
+     */
+    @Benchmark
+    public File[] copyExpression() {
+        return fromDir.listAllTreeFiles("**/.*." + SyntheticSource.FROM_FILE_EXTENTION);
+    }
+    
+    /**
+     * replaceゴールと同じパスの正規表現で検索する。<p>
+     */
+    @Benchmark
+    public File[] replaceExpression() {
+        return fromDir.listAllTreeFiles("src/**/.*\\\\." + SyntheticSource.FROM_FILE_EXTENTION);
+    }
+    
+    /**
+     * ファイル名のフィルタで全件検索する。<p>
+     */
+    @Benchmark
+    public File[] filter() {
+        return fromDir.listAllTreeFiles(new FileFilter(".*\\." + SyntheticSource.FROM_FILE_EXTENTION));
+    }
+}
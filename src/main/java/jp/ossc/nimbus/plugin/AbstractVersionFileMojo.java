@@ -0,0 +1,1016 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.script.ScriptException;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.Scanner;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+/**
+ * 入力ファイルから、対象バージョン毎の出力ファイルを生成するゴールの基底クラス。<p>
+ * 入力ディレクトリ、対象バージョンと出力ディレクトリ、拡張子などの共通のパラメータを検証し、
+ * 入力ファイルの検索、インクリメンタルビルド、出力ファイルの書き込み、キャッシュ、レポートの出力を行う。<br>
+ * 入力ファイル毎の処理は、サブクラスで{@link #process(File, List, List, Set, FingerprintIndex.Fingerprint)}を実装する。<br>
+ */
+public abstract class AbstractVersionFileMojo extends AbstractMojo {
+
+    /**
+     * @parameter
+     */
+    private String version;
+
+    /**
+     * @parameter
+     */
+    protected File fromDir;
+
+    /**
+     * @parameter
+     */
+    private File toDir;
+
+    /**
+     * @parameter
+     */
+    private String[] versions;
+
+    /**
+     * @parameter
+     */
+    private String toDirPattern;
+
+    /**
+     * @parameter
+     */
+    protected String fromFileExtention;
+
+    /**
+     * @parameter
+     */
+    protected String toFileExtention = "java";
+
+    /**
+     * @parameter
+     */
+    protected String encoding;
+
+    /**
+     * @parameter default-value="char"
+     */
+    protected String scanMode = ByteScanner.MODE_CHAR;
+
+    /**
+     * @parameter default-value="false"
+     */
+    private boolean incremental;
+
+    /**
+     * @parameter default-value="false"
+     */
+    private boolean pruneStaleOutputs;
+
+    /**
+     * @parameter
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @parameter
+     */
+    private boolean parallelTraversal;
+
+    /**
+     * @parameter
+     */
+    private boolean sharedScanCache;
+
+    /**
+     * @parameter default-value="${session}"
+     * @readonly
+     */
+    private MavenSession session;
+
+    /**
+     * @parameter
+     */
+    private boolean useOutputCache;
+
+    /**
+     * @parameter default-value="${user.home}/.m2/nimbus-version-filecontrol/cache"
+     */
+    private File outputCacheDir;
+
+    /**
+     * @parameter default-value="536870912"
+     */
+    private long outputCacheMaxSize = 536870912L;
+
+    /**
+     * 出力キャッシュへの格納をハードリンクで行う。復元はハードリンクでは最終更新日時が古いままとなるため、常にコピーで行う。
+     *
+     * @parameter
+     */
+    private boolean outputCacheLink;
+
+    /**
+     * @parameter default-value="false"
+     */
+    protected boolean preserveLastModified;
+
+    /**
+     * @parameter default-value="true"
+     */
+    private boolean writeIfChanged = true;
+
+    /**
+     * @parameter default-value="10"
+     */
+    private int reportSlowestCount = 10;
+
+    /**
+     * @component
+     */
+    protected BuildContext buildContext;
+
+    protected static final String LINE_SEP = System.getProperty("line.separator");
+
+    private static final String VERSION_PLACEHOLDER = "{version}";
+
+    private final String goal;
+
+    protected List<Target> targets;
+
+    protected OutputWriter outputWriter;
+
+    protected GoalReport report;
+
+    protected ByteScanner byteScanner;
+
+    protected ScanCache scanCache;
+
+    protected OutputCache outputCache;
+
+    protected FingerprintIndex index;
+
+    protected OutputManifest manifest;
+
+    private FileFilter targetFileFilter;
+
+    private File[] deletedFiles;
+
+    /**
+     * インスタンスを生成する。<p>
+     *
+     * @param goal ゴール名
+     */
+    protected AbstractVersionFileMojo(String goal) {
+        this.goal = goal;
+    }
+
+    /**
+     * Execute.
+     *
+     * @throws MojoExecutionException predictable error
+     * @throws MojoFailureException unpredictable error
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        try {
+            getLog().info(goal + " start");
+            if (configure()) {
+                processAll();
+            }
+        } catch (ScriptException ex) {
+            getLog().error(ex.getMessage());
+            throw new MojoExecutionException(goal + " failed.", ex);
+        } catch (Throwable th) {
+            getLog().error(th.getMessage());
+            throw new MojoFailureException(goal + " failed");
+        }
+    }
+
+    /**
+     * パラメータを検証し、入力ファイルを処理する準備をする。<p>
+     *
+     * @return 入力ファイルを処理する場合true、インクリメンタルビルドで入力ディレクトリに変更がない場合false
+     * @exception Exception パラメータが不正な場合
+     */
+    private boolean configure() throws Exception {
+        if (reportSlowestCount < 0) {
+            getLog().error("reportSlowestCount is less than 0.");
+            throw new MojoExecutionException("reportSlowestCount is less than 0.");
+        }
+        report = new GoalReport(goal, reportSlowestCount);
+        long phaseStart = System.nanoTime();
+
+        if (fromDir == null) {
+            getLog().error("fromDir is null.");
+            throw new MojoExecutionException("fromDir is null.");
+        } else if (!fromDir.exists()) {
+            getLog().error("fromDir is not exists.");
+            throw new MojoExecutionException("fromDir is not exists.");
+        } else if (!fromDir.isDirectory()) {
+            getLog().error("fromDir is not directory.");
+            throw new MojoExecutionException("fromDir is not directory.");
+        }
+        getLog().info("source " + goal + " fromDir=" + fromDir.getAbsolutePath());
+
+        targets = new ArrayList<Target>();
+        if (versions != null && versions.length != 0) {
+            getLog().info("target versions=" + Arrays.asList(versions));
+            if (toDirPattern == null || "".equals(toDirPattern)) {
+                getLog().error("toDirPattern is null or empty.");
+                throw new MojoExecutionException("toDirPattern is null or empty.");
+            } else if (versions.length > 1 && toDirPattern.indexOf(VERSION_PLACEHOLDER) == -1) {
+                getLog().error("toDirPattern does not contain " + VERSION_PLACEHOLDER + ".");
+                throw new MojoExecutionException("toDirPattern does not contain " + VERSION_PLACEHOLDER + ".");
+            }
+            for (String targetVersion : versions) {
+                targets.add(createTarget(targetVersion, new File(toDirPattern.replace(VERSION_PLACEHOLDER, targetVersion))));
+            }
+        } else {
+            if (version == null || "".equals(version)) {
+                getLog().info("version is not found config.");
+                version = System.getProperty("nimbus.version.filecontrol.target");
+                if (version == null || "".equals(version)) {
+                    throw new MojoExecutionException("target version is null or empty.");
+                }
+            }
+            targets.add(createTarget(version, toDir));
+        }
+
+        if (fromFileExtention == null) {
+            getLog().error("fromFileExtention is null.");
+            throw new MojoExecutionException("fromFileExtention is null.");
+        } else if ("".equals(fromFileExtention)) {
+            getLog().error("fromFileExtention is empty.");
+            throw new MojoExecutionException("fromFileExtention is empty.");
+        } else if (fromFileExtention.startsWith(".")) {
+            fromFileExtention = fromFileExtention.substring(1);
+        }
+        getLog().info("source " + goal + " fromFileExtention=" + fromFileExtention);
+
+        if (toFileExtention == null) {
+            getLog().error("toFileExtention is null.");
+            throw new MojoExecutionException("toFileExtention is null.");
+        } else if ("".equals(toFileExtention)) {
+            getLog().error("toFileExtention is empty.");
+            throw new MojoExecutionException("toFileExtention is empty.");
+        } else if (toFileExtention.startsWith(".")) {
+            toFileExtention = toFileExtention.substring(1);
+        }
+        getLog().info("source " + goal + " toFileExtention=" + toFileExtention);
+
+        targetFileFilter = new FileFilter(".*." + fromFileExtention);
+        deletedFiles = new File[0];
+        if (buildContext != null && buildContext.isIncremental()) {
+            deletedFiles = listDeletedFiles();
+            // 削除だけの変更でも、削除された入力ファイルの出力ファイルを削除するため処理する
+            if (!buildContext.hasDelta(fromDir) && deletedFiles.length == 0) {
+                getLog().info("incremental build. fromDir is not changed. skipped.");
+                return false;
+            }
+        }
+
+        if (encoding == null || "".equals(encoding)) {
+            getLog().info("source " + goal + " encoding is not found config. read or write of the target file is system default encoding.");
+        } else {
+            getLog().info("source " + goal + " encoding=" + encoding);
+        }
+
+        if (scanMode != null && !ByteScanner.MODE_CHAR.equals(scanMode) && !ByteScanner.MODE_BYTE.equals(scanMode)) {
+            getLog().error("scanMode is invalid. scanMode=" + scanMode);
+            throw new MojoExecutionException("scanMode is invalid. scanMode=" + scanMode);
+        }
+        byteScanner = null;
+        configureGoal();
+        getLog().info("scanMode=" + (byteScanner == null ? ByteScanner.MODE_CHAR : ByteScanner.MODE_BYTE));
+
+        if (threads < 1) {
+            getLog().error("threads is less than 1.");
+            throw new MojoExecutionException("threads is less than 1.");
+        }
+        getLog().info("threads=" + threads);
+        getLog().info("parallelTraversal=" + parallelTraversal);
+        scanCache = null;
+        if (sharedScanCache) {
+            if (session == null) {
+                getLog().info("sharedScanCache is not available. session is not found.");
+            } else {
+                scanCache = ScanCache.getInstance(session.getRequest());
+            }
+        }
+        getLog().info("sharedScanCache=" + (scanCache != null));
+        outputCache = null;
+        if (useOutputCache) {
+            if (outputCacheDir == null) {
+                getLog().error("outputCacheDir is null.");
+                throw new MojoExecutionException("outputCacheDir is null.");
+            }
+            if (outputCacheMaxSize <= 0) {
+                getLog().error("outputCacheMaxSize is not positive. outputCacheMaxSize=" + outputCacheMaxSize);
+                throw new MojoExecutionException("outputCacheMaxSize is not positive. outputCacheMaxSize=" + outputCacheMaxSize);
+            }
+            outputCache = new OutputCache(outputCacheDir, outputCacheMaxSize, outputCacheLink);
+            getLog().info("outputCacheDir=" + outputCacheDir.getAbsolutePath() + " outputCacheMaxSize=" + outputCacheMaxSize + " outputCacheLink=" + outputCacheLink);
+        }
+
+        loadRecords();
+        report.addPhaseTimeFrom(GoalReport.PHASE_VALIDATION, phaseStart);
+        return true;
+    }
+
+    /**
+     * インデックスとマニフェストを読み込む。<p>
+     *
+     * @exception Exception パラメータが不正な場合、または読み込みに失敗した場合
+     */
+    private void loadRecords() throws Exception {
+        String[] targetVersions = new String[targets.size()];
+        String[] targetDirs = new String[targets.size()];
+        for (int i = 0; i < targetVersions.length; i++) {
+            targetVersions[i] = targets.get(i).version;
+            targetDirs[i] = targets.get(i).toDir.getAbsolutePath();
+        }
+
+        index = null;
+        if (incremental) {
+            File indexFile = getIndexFile();
+            if (indexFile == null) {
+                getLog().error("indexFile is null.");
+                throw new MojoExecutionException("indexFile is null.");
+            }
+            getLog().info("incremental indexFile=" + indexFile.getAbsolutePath());
+            index = new FingerprintIndex(indexFile, getIndexConfig(targetDirs), FingerprintIndex.join(targetVersions));
+            index.setScanCache(scanCache);
+            if (!index.load()) {
+                getLog().info("index is not found or configuration is changed. all files are processed.");
+            }
+        }
+
+        manifest = null;
+        if (pruneStaleOutputs) {
+            File manifestFile = getManifestFile();
+            if (manifestFile == null) {
+                getLog().error("manifestFile is null.");
+                throw new MojoExecutionException("manifestFile is null.");
+            }
+            getLog().info("pruneStaleOutputs manifestFile=" + manifestFile.getAbsolutePath());
+            manifest = new OutputManifest(manifestFile);
+            if (!manifest.load()) {
+                getLog().info("manifest is not found. stale outputs are not pruned.");
+            }
+        }
+    }
+
+    private Target createTarget(String targetVersion, File targetDir) throws MojoExecutionException {
+        int intVersion;
+        try {
+            intVersion = Integer.parseInt(targetVersion);
+        } catch (NumberFormatException e) {
+            getLog().error("version is not number. version=" + targetVersion);
+            throw new MojoExecutionException("version is not number. version=" + targetVersion);
+        }
+        getLog().info("check target version=" + targetVersion);
+
+        if (targetDir == null) {
+            getLog().error("toDir is null.");
+            throw new MojoExecutionException("toDir is null.");
+        } else if (!targetDir.exists()) {
+            if (targetDir.mkdirs()) {
+                getLog().info("toDir is not exists. toDir created.");
+            } else {
+                getLog().error("toDir is not exists. toDir could not create.");
+                throw new MojoExecutionException("toDir is not exists. toDir could not create.");
+            }
+        } else if (!targetDir.isDirectory()) {
+            getLog().error("toDir is not directory.");
+            throw new MojoExecutionException("toDir is not directory.");
+        }
+        getLog().info("source " + goal + " toDir=" + targetDir.getAbsolutePath());
+        return new Target(targetVersion, intVersion, targetDir);
+    }
+
+    /**
+     * ゴール固有のパラメータを検証する。<p>
+     * バイト列のまま走査できる場合は、{@link #byteScanner}を設定する。<br>
+     *
+     * @exception Exception パラメータが不正な場合
+     */
+    protected abstract void configureGoal() throws Exception;
+
+    /**
+     * バージョン条件の検索に関するパラメータを検証する。<p>
+     *
+     * @param checkTarget チェック対象文字列
+     * @param checkLineLimit 検索する先頭からの行数
+     * @param checkUntilDeclaration パッケージ宣言または型宣言までを検索する場合true
+     * @exception MojoExecutionException パラメータが不正な場合
+     */
+    protected void validateConditionParameters(String checkTarget, int checkLineLimit, boolean checkUntilDeclaration) throws MojoExecutionException {
+        if (checkTarget == null || "".equals(checkTarget)) {
+            getLog().error("checkTarget is null or empty.");
+            throw new MojoExecutionException("checkTarget is null or empty.");
+        }
+        getLog().info("checkTarget=" + checkTarget);
+
+        if (checkLineLimit < 0) {
+            getLog().error("checkLineLimit is less than 0.");
+            throw new MojoExecutionException("checkLineLimit is less than 0.");
+        } else if (checkLineLimit > 0) {
+            getLog().info("checkLineLimit=" + checkLineLimit);
+        }
+        if (checkUntilDeclaration) {
+            getLog().info("checkUntilDeclaration=" + checkUntilDeclaration);
+        }
+    }
+
+    /**
+     * マーカーの置換に関するパラメータを検証し、対象バージョン毎の{@link MarkerReplacer}を生成する。<p>
+     *
+     * @param checkVersions 比較バージョンの配列
+     * @param checkTargetPrefix マーカーの接頭辞
+     * @param replaceMode 置換モード
+     * @exception MojoExecutionException パラメータが不正な場合
+     */
+    protected void createMarkerReplacers(String[] checkVersions, String checkTargetPrefix, String replaceMode) throws MojoExecutionException {
+        if (checkVersions == null || checkVersions.length == 0) {
+            getLog().error("checkVersions is null or empty.");
+            throw new MojoExecutionException("checkVersions is null or empty.");
+        }
+        getLog().info("checkVersions=" + Arrays.asList(checkVersions));
+
+        if (checkTargetPrefix == null || "".equals(checkTargetPrefix)) {
+            getLog().error("checkTargetPrefix is null or empty.");
+            throw new MojoExecutionException("checkTargetPrefix is null or empty.");
+        }
+        getLog().info("checkTargetPrefix=" + checkTargetPrefix);
+
+        for (Target target : targets) {
+            try {
+                target.markerReplacer = new MarkerReplacer(target.version, checkVersions, checkTargetPrefix, replaceMode);
+            } catch (IllegalArgumentException e) {
+                getLog().error("version, checkVersions or replaceMode is invalid. " + e.getMessage());
+                throw new MojoExecutionException("version, checkVersions or replaceMode is invalid. " + e.getMessage());
+            }
+        }
+        getLog().info("replaceMode=" + (targets.get(0).markerReplacer.isLegacy() ? MarkerReplacer.MODE_LEGACY : MarkerReplacer.MODE_SINGLE_PASS));
+    }
+
+    /**
+     * インデックスファイルを取得する。<p>
+     *
+     * @return インデックスファイル
+     */
+    protected abstract File getIndexFile();
+
+    /**
+     * インデックスに記録する、出力内容に影響する設定値のハッシュ値を取得する。<p>
+     *
+     * @param targetDirs 対象バージョン毎の出力ディレクトリの絶対パスの配列
+     * @return 設定ハッシュ値
+     */
+    protected abstract String getIndexConfig(String[] targetDirs);
+
+    /**
+     * マニフェストファイルを取得する。<p>
+     *
+     * @return マニフェストファイル
+     */
+    protected abstract File getManifestFile();
+
+    /**
+     * レポートファイルを取得する。<p>
+     *
+     * @return レポートファイル。出力しない場合はnull
+     */
+    protected abstract File getReportFile();
+
+    /**
+     * 入力ディレクトリ配下から、処理対象の入力ファイルを検索する。<p>
+     *
+     * @return 入力ファイルの配列
+     * @exception Exception 検索に失敗した場合
+     * @see #listAllTreeFiles(String)
+     */
+    protected abstract File[] listTargetFiles() throws Exception;
+
+    /**
+     * 入力ファイルを処理し、対象バージョン毎の出力ファイルを生成する。<p>
+     * 複数のスレッドから並行して呼び出される。<br>
+     *
+     * @param file 入力ファイル
+     * @param messages ログに出力するメッセージのリスト
+     * @param changedFiles 内容が変わった出力ファイルを格納するリスト
+     * @param references 出力が依存する比較バージョンを格納するセット。インクリメンタルビルドでない場合はnull
+     * @param fingerprint 処理した入力ファイルのハッシュ値を設定するフィンガープリント。インクリメンタルビルドでない場合はnull
+     * @return 出力ファイルのリスト。出力しなかった場合は空のリスト
+     * @exception Exception 処理に失敗した場合
+     */
+    protected abstract List<File> process(File file, List<String> messages, List<File> changedFiles, Set<String> references, FingerprintIndex.Fingerprint fingerprint) throws Exception;
+
+    /**
+     * 入力ディレクトリ配下で、指定された正規表現に一致するファイルを検索する。<p>
+     * 共有キャッシュを使用する場合は、前回の検索結果を再利用する。<br>
+     *
+     * @param regexPath パスの正規表現
+     * @return ファイル配列
+     * @see FileUtility#listAllTreeFiles(String, int, int)
+     */
+    protected File[] listAllTreeFiles(String regexPath) {
+        FileUtility rFromDir = new FileUtility(fromDir);
+        return scanCache == null
+            ? rFromDir.listAllTreeFiles(regexPath, FileUtility.SEARCH_TYPE_FILE, parallelTraversal ? threads : 1)
+            : scanCache.listAllTreeFiles(rFromDir, regexPath, FileUtility.SEARCH_TYPE_FILE, parallelTraversal ? threads : 1);
+    }
+
+    /**
+     * インクリメンタルビルドで、前回のビルドから削除された入力ファイルを取得する。<p>
+     *
+     * @return 削除された入力ファイルの配列
+     */
+    private File[] listDeletedFiles() {
+        Scanner scanner = buildContext.newDeleteScanner(fromDir);
+        scanner.setIncludes(new String[] {"**/*." + fromFileExtention});
+        scanner.scan();
+        String[] paths = scanner.getIncludedFiles();
+        File[] result = new File[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            result[i] = new File(fromDir, paths[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 指定されたファイルが、処理対象の入力ファイルか判定する。<p>
+     * 削除された入力ファイルについても判定するため、ファイルが存在するかどうかは判定しない。<br>
+     *
+     * @param file ファイル
+     * @return 入力ディレクトリ配下で、入力ファイルの拡張子を持つ場合true
+     */
+    protected boolean isTargetFile(File file) {
+        return targetFileFilter.accept(file.getParentFile(), file.getName())
+            && file.getAbsolutePath().startsWith(fromDir.getAbsolutePath() + File.separator);
+    }
+
+    /**
+     * 全ての入力ファイルを検索して処理し、インデックス、マニフェスト、レポートを出力する。<p>
+     *
+     * @exception Exception 処理に失敗した場合
+     */
+    protected void processAll() throws Exception {
+        long phaseStart = System.nanoTime();
+        File[] targetFiles = listTargetFiles();
+        report.addPhaseTimeFrom(GoalReport.PHASE_TRAVERSAL, phaseStart);
+        report.addScanned(targetFiles.length);
+        if (manifest != null) {
+            // インクリメンタルビルドで処理しない入力ファイルは、前回の記録を引き継ぐ
+            for (File file : targetFiles) {
+                manifest.retain(file);
+            }
+        }
+        if (buildContext != null && buildContext.isIncremental()) {
+            List<File> deltaFiles = new ArrayList<File>();
+            for (File file : targetFiles) {
+                if (buildContext.hasDelta(file)) {
+                    deltaFiles.add(file);
+                }
+            }
+            getLog().info("incremental build. changed files=" + deltaFiles.size());
+            targetFiles = deltaFiles.toArray(new File[deltaFiles.size()]);
+            int deleteCount = 0;
+            for (File deletedFile : deletedFiles) {
+                if (!isTargetFile(deletedFile)) {
+                    continue;
+                }
+                deleteCount++;
+                for (File toFile : deleteOutputs(deletedFile)) {
+                    getLog().info("File delete file=" + toFile.getAbsolutePath());
+                }
+            }
+            getLog().info("incremental build. deleted files=" + deleteCount);
+        }
+        outputWriter = new OutputWriter(writeIfChanged);
+        int skipCount = processFiles(targetFiles, index);
+        if (index != null) {
+            index.store();
+            getLog().info("unchanged files skipped. count=" + skipCount);
+            if (index.getVersionSkipCount() != 0) {
+                getLog().info("files not affected by target version change. count=" + index.getVersionSkipCount());
+            }
+        }
+        prune();
+        getLog().info("output files written=" + outputWriter.getWrittenCount() + " unchanged=" + outputWriter.getUnchangedCount());
+        if (scanCache != null) {
+            getLog().info("shared scan cache " + scanCache.getStatistics());
+        }
+        if (outputCache != null) {
+            if (outputCache.isStored()) {
+                int evictCount = outputCache.evict();
+                if (evictCount != 0) {
+                    getLog().info("output cache evicted entries=" + evictCount);
+                }
+            }
+            getLog().info("output cache " + outputCache.getStatistics());
+        }
+        report.finish(outputWriter);
+        report.log(getLog());
+        File reportFile = getReportFile();
+        if (reportFile != null) {
+            report.store(reportFile);
+            getLog().info("report file=" + reportFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 入力ファイルを再処理するために、レポートと出力ファイルのライターを初期化する。<p>
+     */
+    void reset() {
+        report = new GoalReport(goal, reportSlowestCount);
+        outputWriter = new OutputWriter(writeIfChanged);
+    }
+
+    /**
+     * 最後に実行した{@link #execute()}で検証したパラメータで、インデックスとマニフェストを読み直して、全ての入力ファイルを処理する。<p>
+     * パラメータの検証は行わないため、検証済みのパラメータが再度変換される事はない。<br>
+     *
+     * @exception Exception 処理に失敗した場合
+     */
+    void regenerateAll() throws Exception {
+        reset();
+        loadRecords();
+        processAll();
+    }
+
+    /**
+     * 指定された入力ファイルを、スレッドプールで処理する。<p>
+     * インデックスを指定した場合は、変更されていない入力ファイルを処理しない。<br>
+     *
+     * @param targetFiles 入力ファイルの配列
+     * @param fIndex インデックス。使用しない場合はnull
+     * @return 変更されていないため処理しなかった入力ファイルの数
+     * @exception Exception 処理に失敗した場合
+     */
+    protected int processFiles(File[] targetFiles, FingerprintIndex fIndex) throws Exception {
+        return processFiles(targetFiles, fIndex, true);
+    }
+
+    /**
+     * 指定された入力ファイルを、スレッドプールで処理する。<p>
+     *
+     * @param targetFiles 入力ファイルの配列
+     * @param fIndex 処理結果を記録するインデックス。使用しない場合はnull
+     * @param isCheckUpToDate インデックスで変更されていない入力ファイルを判定して、処理しない場合true
+     * @return 変更されていないため処理しなかった入力ファイルの数
+     * @exception Exception 処理に失敗した場合
+     */
+    protected int processFiles(File[] targetFiles, final FingerprintIndex fIndex, final boolean isCheckUpToDate) throws Exception {
+        final OutputManifest fManifest = manifest;
+        final int[] skipCount = new int[1];
+        new FileTaskExecutor(threads).execute(
+            targetFiles,
+            new FileTaskExecutor.Task<List<File>>() {
+                public List<File> execute(File targetFile, List<String> messages) throws Exception {
+                    final long start = System.nanoTime();
+                    if (fIndex != null && isCheckUpToDate) {
+                        boolean isUpToDate = fIndex.isUpToDate(targetFile);
+                        report.addPhaseTimeFrom(GoalReport.PHASE_READ, start);
+                        if (isUpToDate) {
+                            if (fManifest != null) {
+                                fManifest.put(targetFile, fIndex.getOutputs(targetFile));
+                            }
+                            return null;
+                        }
+                    }
+                    List<File> changedFiles = new ArrayList<File>();
+                    Set<String> references = fIndex == null ? null : new HashSet<String>();
+                    FingerprintIndex.Fingerprint fingerprint = fIndex == null ? null : new FingerprintIndex.Fingerprint(targetFile);
+                    List<File> toFiles = process(targetFile, messages, changedFiles, references, fingerprint);
+                    if (fIndex != null) {
+                        fIndex.update(targetFile, fingerprint, toFiles, references);
+                    }
+                    if (fManifest != null) {
+                        fManifest.put(targetFile, toFiles);
+                    }
+                    report.addFileTime(targetFile, System.nanoTime() - start);
+                    return changedFiles;
+                }
+            },
+            new FileTaskExecutor.Handler<List<File>>() {
+                public void handle(File targetFile, List<File> changedFiles, List<String> messages) {
+                    if (changedFiles == null) {
+                        skipCount[0]++;
+                        report.addSkipped();
+                    } else if (buildContext != null) {
+                        for (File changedFile : changedFiles) {
+                            buildContext.refresh(changedFile);
+                        }
+                    }
+                    for (String message : messages) {
+                        getLog().info(message);
+                    }
+                }
+            }
+        );
+        return skipCount[0];
+    }
+
+    /**
+     * マニフェストに記録された出力ファイルのうち、今回生成しなかった出力ファイルを削除し、マニフェストを書き込む。<p>
+     *
+     * @exception Exception マニフェストファイルの書き込みに失敗した場合
+     */
+    protected void prune() throws Exception {
+        if (manifest == null) {
+            return;
+        }
+        for (File staleFile : manifest.prune()) {
+            getLog().info("File delete file=" + staleFile.getAbsolutePath());
+            if (buildContext != null) {
+                buildContext.refresh(staleFile);
+            }
+        }
+        manifest.store();
+    }
+
+    /**
+     * 指定された入力ファイルから生成する、指定された対象バージョンの出力ファイルを取得する。<p>
+     *
+     * @param target 対象バージョン
+     * @param file 入力ファイル
+     * @return 出力ファイル
+     */
+    protected File getToFile(Target target, File file) {
+        String tmpFileName = file.getAbsolutePath().substring(fromDir.getAbsolutePath().length());
+        String toFileName = tmpFileName.substring(0, tmpFileName.length() - fromFileExtention.length()) + toFileExtention;
+        return new File(target.toDir.getAbsolutePath() + toFileName);
+    }
+
+    /**
+     * 指定されたデータを出力ファイルに書き込む。<p>
+     *
+     * @param file 入力ファイル
+     * @param data データ
+     * @param toFile 出力ファイル
+     * @param messages ログに出力するメッセージのリスト
+     * @param changedFiles 内容が変わった出力ファイルを格納するリスト
+     * @exception Exception 書き込みに失敗した場合
+     */
+    protected void write(File file, byte[] data, File toFile, List<String> messages, List<File> changedFiles) throws Exception {
+        if (outputWriter.write(data, toFile)) {
+            if (preserveLastModified) {
+                FileUtility.copyLastModified(file, toFile);
+            }
+            changedFiles.add(toFile);
+            messages.add("File copy from=" + file.getAbsolutePath() + " to=" + toFile.getAbsolutePath());
+        } else {
+            messages.add("File unchanged from=" + file.getAbsolutePath() + " to=" + toFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 書き込みが完了した一時ファイルで、出力ファイルを置き換える。<p>
+     * 置き換えた一時ファイルは、配列からnullにする。出力ファイルがnullの要素は、何もしない。<br>
+     *
+     * @param file 入力ファイル
+     * @param toFiles 出力ファイルの配列
+     * @param tmpFiles 一時ファイルの配列
+     * @param messages ログに出力するメッセージのリスト
+     * @param changedFiles 内容が変わった出力ファイルを格納するリスト
+     * @return 出力ファイルのリスト
+     * @exception Exception 置き換えに失敗した場合
+     */
+    protected List<File> commit(File file, File[] toFiles, File[] tmpFiles, List<String> messages, List<File> changedFiles) throws Exception {
+        List<File> result = new ArrayList<File>();
+        for (int i = 0; i < toFiles.length; i++) {
+            if (toFiles[i] == null) {
+                continue;
+            }
+            File tmpFile = tmpFiles[i];
+            tmpFiles[i] = null;
+            if (outputWriter.commit(tmpFile, toFiles[i])) {
+                if (preserveLastModified) {
+                    FileUtility.copyLastModified(file, toFiles[i]);
+                }
+                changedFiles.add(toFiles[i]);
+                messages.add("File copy from=" + file.getAbsolutePath() + " to=" + toFiles[i].getAbsolutePath());
+            } else {
+                messages.add("File unchanged from=" + file.getAbsolutePath() + " to=" + toFiles[i].getAbsolutePath());
+            }
+            result.add(toFiles[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 一時ファイルを削除する。<p>
+     *
+     * @param tmpFiles 一時ファイルの配列
+     */
+    protected static void deleteTempFiles(File[] tmpFiles) {
+        for (int i = 0; i < tmpFiles.length; i++) {
+            if (tmpFiles[i] != null && tmpFiles[i].exists()) {
+                tmpFiles[i].delete();
+            }
+            tmpFiles[i] = null;
+        }
+    }
+
+    /**
+     * 対象バージョン毎の出力キャッシュのキーを生成する。<p>
+     *
+     * @param inputHash 入力ファイルの内容のハッシュ値
+     * @param config 出力内容に影響する設定値のハッシュ値
+     * @return 対象バージョン毎のキーの配列
+     */
+    protected String[] createCacheKeys(String inputHash, String config) {
+        String[] cacheKeys = new String[targets.size()];
+        for (int i = 0; i < cacheKeys.length; i++) {
+            cacheKeys[i] = OutputCache.createKey(inputHash, config, targets.get(i).version);
+        }
+        return cacheKeys;
+    }
+
+    /**
+     * 出力キャッシュから、全ての対象バージョンの出力ファイルを復元する。<p>
+     * 出力ファイルを生成しない事を示すエントリの対象バージョンは、出力ファイルを生成しない。<br>
+     *
+     * @param file 入力ファイル
+     * @param cacheKeys 対象バージョン毎のキーの配列
+     * @param messages ログに出力するメッセージのリスト
+     * @param changedFiles 内容が変わった出力ファイルを格納するリスト
+     * @return 出力ファイルのリスト。キャッシュにない対象バージョンがある場合はnull
+     * @exception Exception 復元に失敗した場合
+     */
+    protected List<File> restore(File file, String[] cacheKeys, List<String> messages, List<File> changedFiles) throws Exception {
+        File[] toFiles = new File[cacheKeys.length];
+        File[] tmpFiles = new File[cacheKeys.length];
+        try {
+            for (int i = 0; i < cacheKeys.length; i++) {
+                if (outputCache.isNone(cacheKeys[i])) {
+                    continue;
+                }
+                toFiles[i] = getToFile(targets.get(i), file);
+                tmpFiles[i] = outputCache.restore(cacheKeys[i], toFiles[i]);
+                if (tmpFiles[i] == null) {
+                    return null;
+                }
+            }
+            return commit(file, toFiles, tmpFiles, messages, changedFiles);
+        } finally {
+            deleteTempFiles(tmpFiles);
+        }
+    }
+
+    /**
+     * 対象バージョン毎の出力ファイルを、出力キャッシュに格納する。<p>
+     *
+     * @param file 入力ファイル
+     * @param cacheKeys 対象バージョン毎のキーの配列。出力キャッシュを使用しない場合はnull
+     * @param toFiles 対象バージョン毎の出力ファイルの配列。出力ファイルを生成しなかった対象バージョンはnull
+     * @param lastModified 読み込む前に取得した入力ファイルの最終更新日時
+     * @param length 読み込む前に取得した入力ファイルのサイズ
+     * @exception Exception 格納に失敗した場合
+     */
+    protected void store(File file, String[] cacheKeys, File[] toFiles, long lastModified, long length) throws Exception {
+        // 処理中に入力ファイルが変更された場合は、キーと出力ファイルの内容が一致しない可能性があるため格納しない
+        if (cacheKeys == null || file.lastModified() != lastModified || file.length() != length) {
+            return;
+        }
+        for (int i = 0; i < cacheKeys.length; i++) {
+            if (toFiles[i] == null) {
+                outputCache.putNone(cacheKeys[i]);
+            } else {
+                outputCache.put(cacheKeys[i], toFiles[i]);
+            }
+        }
+    }
+
+    /**
+     * 削除された入力ファイルから生成した出力ファイルを削除する。<p>
+     *
+     * @param file 削除された入力ファイル
+     * @return 削除した出力ファイルのリスト
+     * @exception Exception インデックスファイルまたはマニフェストファイルの書き込みに失敗した場合
+     */
+    List<File> deleteOutputs(File file) throws Exception {
+        if (index != null && index.remove(file)) {
+            index.store();
+        }
+        if (manifest != null) {
+            manifest.remove(file);
+            manifest.store();
+        }
+        List<File> result = new ArrayList<File>();
+        for (Target target : targets) {
+            File toFile = getToFile(target, file);
+            if (toFile.isFile() && toFile.delete()) {
+                result.add(toFile);
+                if (buildContext != null) {
+                    buildContext.refresh(toFile);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 削除または移動されたディレクトリ配下の入力ファイルから生成した出力ファイルを削除する。<p>
+     *
+     * @param dir 削除または移動されたディレクトリ
+     * @return 削除した出力ファイルのリスト
+     * @exception Exception インデックスファイルまたはマニフェストファイルの書き込みに失敗した場合
+     */
+    List<File> deleteOutputsUnder(File dir) throws Exception {
+        List<File> result = new ArrayList<File>();
+        if (!dir.getAbsolutePath().startsWith(fromDir.getAbsolutePath() + File.separator)) {
+            return result;
+        }
+        if (index != null && index.removeUnder(dir)) {
+            index.store();
+        }
+        if (manifest != null && manifest.removeUnder(dir)) {
+            manifest.store();
+        }
+        String relativePath = dir.getAbsolutePath().substring(fromDir.getAbsolutePath().length());
+        for (Target target : targets) {
+            File toDir = new File(target.toDir.getAbsolutePath() + relativePath);
+            if (!toDir.isDirectory()) {
+                continue;
+            }
+            File[] toFiles = new FileUtility(toDir).listAllTreeFiles("**/.*." + toFileExtention, FileUtility.SEARCH_TYPE_FILE, 1);
+            for (File toFile : toFiles) {
+                if (toFile.delete()) {
+                    result.add(toFile);
+                    if (buildContext != null) {
+                        buildContext.refresh(toFile);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 対象バージョンと出力ディレクトリ。<p>
+     */
+    protected static class Target {
+
+        final String version;
+
+        final int intVersion;
+
+        final File toDir;
+
+        MarkerReplacer markerReplacer;
+
+        byte[][] replacements;
+
+        Target(String version, int intVersion, File toDir) {
+            this.version = version;
+            this.intVersion = intVersion;
+            this.toDir = toDir;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * analyze
+ *
+ * 出力ファイルを生成せずに、入力ファイル毎のバージョン条件とマーカーを指定された全てのバージョンについて評価し、コピーされる入力ファイルと有効になるマーカーのブロックを出力する。<p>
+ * replaceTargetDirsを指定した場合は、replaceゴールと同様に、置換対象ディレクトリ直下の入力ファイルのマーカーだけを評価する。指定しない場合は、入力ディレクトリ配下の全ての入力ファイルのマーカーを評価する。<br>
+ * checkTargetを指定した場合、バージョン間の差分は、copy-replaceゴールと同様に、コピーされる入力ファイルのマーカーだけを比較する。<br>
+ *
+ * @goal analyze
+ *
+ */
+public class AnalyzeMojo extends AbstractMojo {
+
+    /**
+     * @parameter
+     */
+    private String[] versions;
+
+    /**
+     * @parameter
+     */
+    private File fromDir;
+
+    /**
+     * @parameter
+     */
+    private String fromFileExtention;
+
+    /**
+     * @parameter
+     */
+    private String encoding;
+
+    /**
+     * @parameter
+     */
+    private String checkTarget;
+
+    /**
+     * @parameter default-value="0"
+     */
+    private int checkLineLimit;
+
+    /**
+     * @parameter default-value="false"
+     */
+    private boolean checkUntilDeclaration;
+
+    /**
+     * @parameter
+     */
+    private String[] checkVersions;
+
+    /**
+     * @parameter
+     */
+    private String checkTargetPrefix;
+
+    /**
+     * @parameter
+     */
+    private String[] replaceTargetDirs;
+
+    /**
+     * @parameter
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @parameter
+     */
+    private boolean parallelTraversal;
+
+    /**
+     * @parameter default-value="char"
+     */
+    private String scanMode = ByteScanner.MODE_CHAR;
+
+    /**
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/analyze-${mojoExecution.executionId}.tsv"
+     */
+    private File analysisFile;
+
+    private int[] intVersions;
+
+    private MarkerReplacer[] markerReplacers;
+
+    private ByteScanner byteScanner;
+
+    private ByteScanner markerScanner;
+
+    private Set<File> replaceTargetFiles;
+
+    private static final String FLAG_ON = "1";
+
+    private static final String FLAG_OFF = "0";
+
+    /**
+     * Execute.
+     *
+     * @throws MojoExecutionException predictable error
+     * @throws MojoFailureException unpredictable error
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        Writer writer = null;
+        try {
+            getLog().info("analyze start");
+            final long start = System.nanoTime();
+            if (fromDir == null) {
+                getLog().error("fromDir is null.");
+                throw new MojoExecutionException("fromDir is null.");
+            } else if (!fromDir.exists()) {
+                getLog().error("fromDir is not exists.");
+                throw new MojoExecutionException("fromDir is not exists.");
+            } else if (!fromDir.isDirectory()) {
+                getLog().error("fromDir is not directory.");
+                throw new MojoExecutionException("fromDir is not directory.");
+            }
+            getLog().info("analyze fromDir=" + fromDir.getAbsolutePath());
+            if (versions == null || versions.length == 0) {
+                getLog().error("versions is null or empty.");
+                throw new MojoExecutionException("versions is null or empty.");
+            }
+            getLog().info("analyze versions=" + Arrays.asList(versions));
+            intVersions = new int[versions.length];
+            for (int i = 0; i < versions.length; i++) {
+                try {
+                    intVersions[i] = Integer.parseInt(versions[i]);
+                } catch (NumberFormatException e) {
+                    getLog().error("version is not number. version=" + versions[i]);
+                    throw new MojoExecutionException("version is not number. version=" + versions[i]);
+                }
+            }
+            if (fromFileExtention == null) {
+                getLog().error("fromFileExtention is null.");
+                throw new MojoExecutionException("fromFileExtention is null.");
+            } else if ("".equals(fromFileExtention)) {
+                getLog().error("fromFileExtention is empty.");
+                throw new MojoExecutionException("fromFileExtention is empty.");
+            } else if(fromFileExtention.startsWith(".")) {
+                fromFileExtention = fromFileExtention.substring(1);
+            }
+            getLog().info("analyze fromFileExtention=" + fromFileExtention);
+            if ((checkTarget == null || "".equals(checkTarget)) && (checkVersions == null || checkVersions.length == 0)) {
+                getLog().error("checkTarget and checkVersions are null or empty.");
+                throw new MojoExecutionException("checkTarget and checkVersions are null or empty.");
+            }
+            if (checkTarget != null && !"".equals(checkTarget)) {
+                getLog().info("checkTarget=" + checkTarget);
+            } else {
+                checkTarget = null;
+            }
+            if(encoding == null || "".equals(encoding)) {
+                getLog().info("analyze encoding is not found config. read of the target file is system default encoding.");
+            } else {
+                getLog().info("analyze encoding=" + encoding);
+            }
+            if (checkLineLimit < 0) {
+                getLog().error("checkLineLimit is less than 0.");
+                throw new MojoExecutionException("checkLineLimit is less than 0.");
+            } else if (checkLineLimit > 0) {
+                getLog().info("checkLineLimit=" + checkLineLimit);
+            }
+            if (checkUntilDeclaration) {
+                getLog().info("checkUntilDeclaration=" + checkUntilDeclaration);
+            }
+            markerReplacers = null;
+            if (checkVersions != null && checkVersions.length != 0) {
+                if (checkTargetPrefix == null || "".equals(checkTargetPrefix)) {
+                    getLog().error("checkTargetPrefix is null or empty.");
+                    throw new MojoExecutionException("checkTargetPrefix is null or empty.");
+                }
+                getLog().info("checkVersions=" + Arrays.asList(checkVersions));
+                getLog().info("checkTargetPrefix=" + checkTargetPrefix);
+                markerReplacers = new MarkerReplacer[versions.length];
+                try {
+                    for (int i = 0; i < versions.length; i++) {
+                        markerReplacers[i] = new MarkerReplacer(versions[i], checkVersions, checkTargetPrefix);
+                    }
+                } catch (IllegalArgumentException e) {
+                    getLog().error("versions or checkVersions is invalid. " + e.getMessage());
+                    throw new MojoExecutionException("versions or checkVersions is invalid. " + e.getMessage());
+                }
+            }
+            byteScanner = null;
+            markerScanner = null;
+            if (ByteScanner.MODE_BYTE.equals(scanMode)) {
+                if (checkTarget != null) {
+                    if (checkUntilDeclaration) {
+                        getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available with checkUntilDeclaration.");
+                    } else if (!ByteScanner.isAscii(checkTarget)) {
+                        getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available. checkTarget is not ascii.");
+                    } else {
+                        try {
+                            byteScanner = new ByteScanner(encoding);
+                        } catch (IllegalArgumentException e) {
+                            getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available. " + e.getMessage());
+                        }
+                    }
+                }
+                if (markerReplacers != null) {
+                    try {
+                        markerScanner = new ByteScanner(encoding, checkVersions, checkTargetPrefix);
+                    } catch (IllegalArgumentException e) {
+                        getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available for markers. " + e.getMessage());
+                    }
+                }
+            } else if (scanMode != null && !ByteScanner.MODE_CHAR.equals(scanMode)) {
+                getLog().error("scanMode is invalid. scanMode=" + scanMode);
+                throw new MojoExecutionException("scanMode is invalid. scanMode=" + scanMode);
+            }
+            getLog().info("scanMode=" + (byteScanner == null && markerScanner == null ? ByteScanner.MODE_CHAR : ByteScanner.MODE_BYTE));
+            if (threads < 1) {
+                getLog().error("threads is less than 1.");
+                throw new MojoExecutionException("threads is less than 1.");
+            }
+            getLog().info("threads=" + threads);
+            getLog().info("parallelTraversal=" + parallelTraversal);
+
+            FileUtility rFromDir = new FileUtility(fromDir);
+            File[] targetFiles = rFromDir.listAllTreeFiles("**/.*." + fromFileExtention, FileUtility.SEARCH_TYPE_FILE, parallelTraversal ? threads : 1);
+            replaceTargetFiles = null;
+            if (markerReplacers != null && replaceTargetDirs != null && replaceTargetDirs.length != 0) {
+                replaceTargetFiles = new HashSet<File>();
+                for (String replaceTargetDirName : replaceTargetDirs) {
+                    getLog().info("analyze replaceTargetDir=" + replaceTargetDirName);
+                    replaceTargetFiles.addAll(Arrays.asList(rFromDir.listAllTreeFiles(replaceTargetDirName + "/.*\\\\." + fromFileExtention, FileUtility.SEARCH_TYPE_FILE, parallelTraversal ? threads : 1)));
+                }
+            }
+            if (analysisFile != null) {
+                if (!analysisFile.getParentFile().exists()) {
+                    analysisFile.getParentFile().mkdirs();
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(analysisFile), "UTF-8"));
+                writer.write("type\tfile\tline\tblock");
+                for (String version : versions) {
+                    writer.write('\t');
+                    writer.write(version);
+                }
+                writer.write('\n');
+            }
+            final Writer fWriter = writer;
+            final String fromPath = fromDir.getAbsolutePath();
+            final int[] copiedCounts = new int[versions.length];
+            final int[] activeCounts = new int[versions.length];
+            final int[] blockCount = new int[1];
+            final int[][] differenceCounts = new int[versions.length][versions.length];
+            new FileTaskExecutor(threads).execute(
+                targetFiles,
+                new FileTaskExecutor.Task<Analysis>() {
+                    public Analysis execute(File targetFile, List<String> messages) throws Exception {
+                        return analyze(targetFile);
+                    }
+                },
+                new FileTaskExecutor.Handler<Analysis>() {
+                    public void handle(File targetFile, Analysis analysis, List<String> messages) {
+                        final String path = targetFile.getAbsolutePath().substring(fromPath.length() + 1).replace(File.separatorChar, '/');
+                        try {
+                            if (analysis.copied != null) {
+                                for (int i = 0; i < versions.length; i++) {
+                                    if (analysis.copied[i]) {
+                                        copiedCounts[i]++;
+                                    }
+                                }
+                                if (fWriter != null) {
+                                    fWriter.write("copy\t" + path + "\t\t");
+                                    writeFlags(fWriter, analysis.copied);
+                                }
+                            }
+                            for (int j = 0; j < analysis.blocks.size(); j++) {
+                                final boolean[] active = analysis.active.get(j);
+                                blockCount[0]++;
+                                for (int i = 0; i < versions.length; i++) {
+                                    if (active[i]) {
+                                        activeCounts[i]++;
+                                    }
+                                }
+                                if (fWriter != null) {
+                                    fWriter.write("marker\t" + path + '\t' + analysis.lineNumbers.get(j) + '\t' + analysis.blocks.get(j));
+                                    writeFlags(fWriter, active);
+                                }
+                            }
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                        for (int i = 0; i < versions.length; i++) {
+                            for (int k = i + 1; k < versions.length; k++) {
+                                if (analysis.isDifferent(i, k)) {
+                                    differenceCounts[i][k]++;
+                                }
+                            }
+                        }
+                    }
+                }
+            );
+            for (int i = 0; i < versions.length; i++) {
+                getLog().info(
+                    "analyze version=" + versions[i]
+                        + (checkTarget == null ? "" : " copied files=" + copiedCounts[i])
+                        + (markerReplacers == null ? "" : " active marker blocks=" + activeCounts[i] + "/" + blockCount[0])
+                );
+            }
+            for (int i = 0; i < versions.length; i++) {
+                for (int k = i + 1; k < versions.length; k++) {
+                    getLog().info("analyze difference versions=" + versions[i] + "," + versions[k] + " files=" + differenceCounts[i][k]);
+                }
+            }
+            if (writer != null) {
+                Writer w = writer;
+                writer = null;
+                w.close();
+                getLog().info("analysis file=" + analysisFile.getAbsolutePath());
+            }
+            getLog().info("analyze finished. files=" + targetFiles.length + " time=" + (System.nanoTime() - start) / 1000000 + "ms");
+        } catch (Throwable th) {
+            getLog().error(th.getMessage());
+            throw new MojoFailureException("analyze failed");
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+
+    private static void writeFlags(Writer writer, boolean[] flags) throws Exception {
+        for (boolean flag : flags) {
+            writer.write('\t');
+            writer.write(flag ? FLAG_ON : FLAG_OFF);
+        }
+        writer.write('\n');
+    }
+
+    private Analysis analyze(File file) throws Exception {
+        final Analysis analysis = new Analysis();
+        final byte[] data = FileUtility.dataRead(file);
+        if (checkTarget != null) {
+            List<VersionCondition> conditions = CopyMojo.findConditions(data, checkTarget, encoding, checkLineLimit, checkUntilDeclaration, byteScanner);
+            analysis.copied = new boolean[versions.length];
+            if (!conditions.isEmpty()) {
+                for (int i = 0; i < versions.length; i++) {
+                    boolean isCopyTarget = true;
+                    for (VersionCondition condition : conditions) {
+                        if (!condition.isSatisfied(intVersions[i])) {
+                            isCopyTarget = false;
+                            break;
+                        }
+                    }
+                    analysis.copied[i] = isCopyTarget;
+                }
+            }
+        }
+        if (markerReplacers == null || (replaceTargetFiles != null && !replaceTargetFiles.contains(file))) {
+            return analysis;
+        }
+        final List<String> markers = new ArrayList<String>();
+        final List<Integer> lineNumbers = new ArrayList<Integer>();
+        if (markerScanner != null) {
+            markerScanner.findMarkers(ByteBuffer.wrap(data), markers, lineNumbers);
+        } else {
+            Reader reader = null;
+            BufferedReader br = null;
+            try {
+                reader = encoding == null ? new InputStreamReader(new ByteArrayInputStream(data)) : new InputStreamReader(new ByteArrayInputStream(data), encoding);
+                br = new BufferedReader(reader);
+                String line = null;
+                int lineNumber = 0;
+                while ((line = br.readLine()) != null) {
+                    lineNumber++;
+                    int size = markers.size();
+                    markerReplacers[0].findMarkers(line, markers);
+                    for (int i = size; i < markers.size(); i++) {
+                        lineNumbers.add(lineNumber);
+                    }
+                }
+            } finally {
+                if (br != null) {
+                    try {
+                        br.close();
+                    } catch (Exception e) {
+                    }
+                }
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (Exception e) {
+                    }
+                }
+            }
+        }
+        // ブロックの有効/無効は開始マーカーで決まるため、終了マーカーは報告しない
+        for (int j = 0; j < markers.size(); j++) {
+            final String marker = markers.get(j);
+            if (!marker.startsWith("START")) {
+                continue;
+            }
+            final boolean[] active = new boolean[versions.length];
+            for (int i = 0; i < versions.length; i++) {
+                active[i] = MarkerReplacer.REPLACE_EMPTY_STR.equals(markerReplacers[i].getReplacement(marker));
+            }
+            analysis.blocks.add(marker.substring("START".length()));
+            analysis.lineNumbers.add(lineNumbers.get(j));
+            analysis.active.add(active);
+        }
+        return analysis;
+    }
+
+    private static class Analysis {
+
+        boolean[] copied;
+
+        final List<String> blocks = new ArrayList<String>();
+
+        final List<Integer> lineNumbers = new ArrayList<Integer>();
+
+        final List<boolean[]> active = new ArrayList<boolean[]>();
+
+        boolean isDifferent(int version1, int version2) {
+            if (copied != null) {
+                if (copied[version1] != copied[version2]) {
+                    return true;
+                }
+                // どちらのバージョンでもコピーされない入力ファイルは、マーカーが異なっても出力に差分はない
+                if (!copied[version1]) {
+                    return false;
+                }
+            }
+            for (boolean[] flags : active) {
+                if (flags[version1] != flags[version2]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,485 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ファイルの内容を文字にデコードせず、バイト列のままチェック対象文字列とマーカーを検索するスキャナ。<p>
+ * チェック対象文字列とマーカーはASCII文字だけで構成されるため、ASCII互換のエンコーディングでは、
+ * 文字の境界にあるASCIIのバイトを比較するだけで、文字列での検索と同じ結果が得られる。<br>
+ * Shift_JISとWindows-31Jは、2バイト文字の2バイト目がASCIIの範囲と重なるため、1バイト目を判別して2バイト目を読み飛ばす。<br>
+ * 文字列の生成は、チェック対象文字列を含む行をデコードする場合だけで、マーカーの置換では行わない。<br>
+ * 不正なバイト列や、エンコーディングで表現できない文字は、デコードせずにそのまま出力する。<br>
+ */
+public class ByteScanner {
+    
+    /**
+     * スキャン方式：InputStreamReaderで文字にデコードして、行毎に処理する。<p>
+     * デフォルト値。<br>
+     */
+    public static final String MODE_CHAR = "char";
+    
+    /**
+     * スキャン方式：バイト列のまま検索する。<p>
+     * サポートしていないエンコーディングの場合は、{@link #MODE_CHAR}で処理する。<br>
+     */
+    public static final String MODE_BYTE = "byte";
+    
+    private static final String[] MARKER_TYPES = {"START", "END"};
+    
+    // MarkerReplacerの正規表現の選択肢と同じ順序で照合する
+    private static final String[] OPERATORS = {"<=", ">=", "=", "<", ">"};
+    
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+    
+    private static final Set<String> SUPPORTED_ENCODINGS = new HashSet<String>(Arrays.asList(
+        "US-ASCII", "UTF-8",
+        "ISO-8859-1", "ISO-8859-2", "ISO-8859-3", "ISO-8859-4", "ISO-8859-5", "ISO-8859-6", "ISO-8859-7",
+        "ISO-8859-8", "ISO-8859-9", "ISO-8859-13", "ISO-8859-15",
+        "Shift_JIS", "windows-31j"
+    ));
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    private final Charset charset;
+    
+    private final boolean isShiftJIS;
+    
+    private String[] checkVersions;
+    
+    private byte[][] typeBytes;
+    
+    private byte[][] operatorBytes;
+    
+    private byte[] prefixBytes;
+    
+    private byte[][] versionBytes;
+    
+    /**
+     * 指定されたエンコーディングのスキャナを生成する。<p>
+     *
+     * @param encoding エンコーディング。nullの場合は、システムのデフォルトエンコーディング
+     * @exception IllegalArgumentException サポートしていないエンコーディングの場合
+     */
+    public ByteScanner(String encoding) throws IllegalArgumentException {
+        if (!isSupported(encoding)) {
+            throw new IllegalArgumentException("encoding is not supported. encoding=" + encoding);
+        }
+        charset = toCharset(encoding);
+        isShiftJIS = "Shift_JIS".equals(charset.name()) || "windows-31j".equals(charset.name());
+    }
+    
+    /**
+     * 指定されたエンコーディングで、マーカーを検索するスキャナを生成する。<p>
+     *
+     * @param encoding エンコーディング。nullの場合は、システムのデフォルトエンコーディング
+     * @param checkVersions 比較バージョンの配列
+     * @param checkTargetPrefix マーカーのバージョン接頭辞
+     * @exception IllegalArgumentException サポートしていないエンコーディングの場合、または接頭辞がリテラルのASCII文字列でない場合
+     */
+    public ByteScanner(String encoding, String[] checkVersions, String checkTargetPrefix) throws IllegalArgumentException {
+        this(encoding);
+        if (!isLiteral(checkTargetPrefix)) {
+            throw new IllegalArgumentException("checkTargetPrefix is not literal. checkTargetPrefix=" + checkTargetPrefix);
+        }
+        this.checkVersions = checkVersions;
+        typeBytes = toBytes(MARKER_TYPES);
+        operatorBytes = toBytes(OPERATORS);
+        prefixBytes = toBytes(new String[] {checkTargetPrefix})[0];
+        versionBytes = new byte[checkVersions.length][];
+        for (int i = 0; i < checkVersions.length; i++) {
+            if (!isAscii(checkVersions[i])) {
+                throw new IllegalArgumentException("checkVersion is not ascii. checkVersion=" + checkVersions[i]);
+            }
+            versionBytes[i] = toBytes(new String[] {checkVersions[i]})[0];
+        }
+    }
+    
+    /**
+     * 指定されたエンコーディングを、バイト列のまま検索できるかどうか判定する。<p>
+     *
+     * @param encoding エンコーディング。nullの場合は、システムのデフォルトエンコーディング
+     * @return 検索できる場合true
+     */
+    public static boolean isSupported(String encoding) {
+        try {
+            return SUPPORTED_ENCODINGS.contains(toCharset(encoding).name());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 指定された文字列が、行終端文字を含まない印字可能なASCII文字だけで構成されているかどうか判定する。<p>
+     *
+     * @param value 文字列
+     * @return ASCII文字だけで構成されている場合true
+     */
+    public static boolean isAscii(String value) {
+        if (value == null || value.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 指定された文字列が、正規表現のメタ文字を含まないASCII文字列かどうか判定する。<p>
+     *
+     * @param value 文字列
+     * @return 正規表現のメタ文字を含まないASCII文字列の場合true
+     */
+    public static boolean isLiteral(String value) {
+        if (!isAscii(value)) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (REGEX_META_CHARS.indexOf(value.charAt(i)) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static Charset toCharset(String encoding) {
+        return encoding == null || encoding.length() == 0 ? Charset.defaultCharset() : Charset.forName(encoding);
+    }
+    
+    private static byte[][] toBytes(String[] values) {
+        final byte[][] result = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = new byte[values[i].length()];
+            for (int j = 0; j < result[i].length; j++) {
+                result[i][j] = (byte) values[i].charAt(j);
+            }
+        }
+        return result;
+    }
+    
+    private boolean isLeadByte(int b) {
+        return isShiftJIS && ((b >= 0x81 && b <= 0x9F) || (b >= 0xE0 && b <= 0xFC));
+    }
+    
+    private static boolean isTrailByte(int b) {
+        return (b >= 0x40 && b <= 0x7E) || (b >= 0x80 && b <= 0xFC);
+    }
+    
+    /**
+     * 指定された位置から始まる文字のバイト数を取得する。<p>
+     * 2バイト文字の第1バイトの後に第2バイトとして不正なバイトが続く場合は、デコーダと同様に第1バイトだけを1文字とする。<br>
+     * これにより、不正なバイト列の直後の行の終端を、2バイト文字の一部として読み飛ばさない。<br>
+     *
+     * @return バイト数
+     */
+    private int charLength(ByteBuffer data, int index, int limit, int b) {
+        return isLeadByte(b) && index + 1 < limit && isTrailByte(data.get(index + 1) & 0xFF) ? 2 : 1;
+    }
+    
+    /**
+     * 指定された文字列を含む行を、先頭から検索してデコードする。<p>
+     * BufferedReader#readLine()と同様に、"\n"、"\r"、"\r\n"を行の終端とする。<br>
+     *
+     * @param data ファイルの内容
+     * @param target 検索する文字列。{@link #isAscii(String)}を満たす事
+     * @param lineLimit 検索する先頭からの行数。0の場合は、全ての行
+     * @return 指定された文字列を含む行のリスト
+     */
+    public List<String> findLines(ByteBuffer data, String target, int lineLimit) {
+        final byte[] targetBytes = toBytes(new String[] {target})[0];
+        final List<String> result = new ArrayList<String>();
+        final int limit = data.limit();
+        int lineStart = 0;
+        int lineCount = 1;
+        int i = 0;
+        while (i < limit) {
+            if (i == lineStart && lineLimit > 0 && lineCount > lineLimit) {
+                break;
+            }
+            final int b = data.get(i) & 0xFF;
+            if (b == '\r' || b == '\n') {
+                i += (b == '\r' && i + 1 < limit && data.get(i + 1) == '\n') ? 2 : 1;
+                lineStart = i;
+                lineCount++;
+            } else if (isLeadByte(b)) {
+                i += charLength(data, i, limit, b);
+            } else if (b == targetBytes[0] && matches(data, i, limit, targetBytes)) {
+                int lineEnd = i + targetBytes.length;
+                while (lineEnd < limit && data.get(lineEnd) != '\r' && data.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                result.add(decode(data, lineStart, lineEnd));
+                i = lineEnd;
+            } else {
+                i++;
+            }
+        }
+        return result;
+    }
+    
+    private String decode(ByteBuffer data, int from, int to) {
+        if (data.hasArray()) {
+            return new String(data.array(), data.arrayOffset() + from, to - from, charset);
+        }
+        final byte[] bytes = new byte[to - from];
+        final ByteBuffer buf = data.duplicate();
+        buf.position(from);
+        buf.get(bytes);
+        return new String(bytes, charset);
+    }
+    
+    private static boolean matches(ByteBuffer data, int index, int limit, byte[] bytes) {
+        if (index + bytes.length > limit) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (data.get(index + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 指定された置換エンジンの置換文字列を、マーカー毎にエンコードしたテーブルを生成する。<p>
+     *
+     * @param markerReplacer 置換エンジン
+     * @return 置換文字列のテーブル
+     */
+    public byte[][] createReplacements(MarkerReplacer markerReplacer) {
+        final byte[][] result = new byte[MARKER_TYPES.length * OPERATORS.length * checkVersions.length][];
+        for (int t = 0; t < MARKER_TYPES.length; t++) {
+            for (int o = 0; o < OPERATORS.length; o++) {
+                for (int v = 0; v < checkVersions.length; v++) {
+                    result[markerIndex(t, o, v)] = markerReplacer.getReplacement(
+                        MARKER_TYPES[t] + OPERATORS[o] + checkVersions[v]
+                    ).getBytes(charset);
+                }
+            }
+        }
+        return result;
+    }
+    
+    private int markerIndex(int type, int operator, int version) {
+        return (type * OPERATORS.length + operator) * checkVersions.length + version;
+    }
+    
+    private String markerKey(int markerIndex) {
+        final int version = markerIndex % checkVersions.length;
+        final int operator = (markerIndex / checkVersions.length) % OPERATORS.length;
+        final int type = markerIndex / (checkVersions.length * OPERATORS.length);
+        return MARKER_TYPES[type] + OPERATORS[operator] + checkVersions[version];
+    }
+    
+    /**
+     * マーカーを、置換せずに先頭から検索する。<p>
+     * {@link MarkerReplacer#findMarkers(String, List)}で行毎に検索した結果と同じマーカーを取得する。<br>
+     *
+     * @param data ファイルの内容
+     * @param markers 見つかったマーカーの種別、演算子、比較バージョンを連結した文字列を追加するリスト。例えば"START&lt;=8"
+     * @param lineNumbers 見つかったマーカーの、1から始まる行番号を追加するリスト
+     */
+    public void findMarkers(ByteBuffer data, List<String> markers, List<Integer> lineNumbers) {
+        final int limit = data.limit();
+        int lineNumber = 1;
+        int i = 0;
+        while (i < limit) {
+            final int b = data.get(i) & 0xFF;
+            if (b == '\r' || b == '\n') {
+                i += (b == '\r' && i + 1 < limit && data.get(i + 1) == '\n') ? 2 : 1;
+                lineNumber++;
+            } else if (isLeadByte(b)) {
+                i += charLength(data, i, limit, b);
+            } else if (b == '@') {
+                final long match = matchMarker(data, i, limit);
+                if (match == -1L) {
+                    i++;
+                    continue;
+                }
+                markers.add(markerKey((int) match));
+                lineNumbers.add(lineNumber);
+                i = (int) (match >>> 32);
+            } else {
+                i++;
+            }
+        }
+    }
+    
+    /**
+     * 指定された位置から始まるマーカーを照合する。<p>
+     *
+     * @return マーカーの終端の位置とマーカーの番号を格納した値。マーカーでない場合は-1
+     */
+    private long matchMarker(ByteBuffer data, int index, int limit) {
+        int pos = index + 1;
+        int type = -1;
+        for (int t = 0; t < typeBytes.length; t++) {
+            if (matches(data, pos, limit, typeBytes[t])) {
+                type = t;
+                pos += typeBytes[t].length;
+                break;
+            }
+        }
+        if (type == -1) {
+            return -1L;
+        }
+        for (int o = 0; o < operatorBytes.length; o++) {
+            if (!matches(data, pos, limit, operatorBytes[o])) {
+                continue;
+            }
+            final int prefixPos = pos + operatorBytes[o].length;
+            if (!matches(data, prefixPos, limit, prefixBytes)) {
+                continue;
+            }
+            final int versionPos = prefixPos + prefixBytes.length;
+            for (int v = 0; v < versionBytes.length; v++) {
+                final int end = versionPos + versionBytes[v].length;
+                if (end < limit && data.get(end) == '@' && matches(data, versionPos, limit, versionBytes[v])) {
+                    return ((long) (end + 1) << 32) | markerIndex(type, o, v);
+                }
+            }
+        }
+        return -1L;
+    }
+    
+    /**
+     * マーカーを置換して、置換エンジン毎の出力先に書き込む。<p>
+     * {@link MarkerReplacer#replace(String)}で行毎に置換して、行区切り文字で連結した結果と同じ内容を書き込む。<br>
+     * 行の終端は指定された行区切り文字に置き換え、最終行に終端がない場合は行区切り文字を追加する。<br>
+     *
+     * @param data ファイルの内容
+     * @param replacements 出力先毎の、{@link #createReplacements(MarkerReplacer)}で生成した置換文字列のテーブル
+     * @param outs 出力先
+     * @param lineSeparator 行区切り文字
+     * @exception IOException 書き込みに失敗した場合
+     */
+    public void replace(ByteBuffer data, byte[][][] replacements, OutputStream[] outs, String lineSeparator) throws IOException {
+        replace(data, replacements, outs, lineSeparator, null);
+    }
+    
+    /**
+     * マーカーを置換して、置換エンジン毎の出力先に書き込み、置換したマーカーの比較バージョンを記録する。<p>
+     *
+     * @param data ファイルの内容
+     * @param replacements 出力先毎の、{@link #createReplacements(MarkerReplacer)}で生成した置換文字列のテーブル
+     * @param outs 出力先
+     * @param lineSeparator 行区切り文字
+     * @param references 置換したマーカーの比較バージョンを記録するセット。記録しない場合はnull
+     * @exception IOException 書き込みに失敗した場合
+     * @see MarkerReplacer#replace(String, Set)
+     */
+    public void replace(ByteBuffer data, byte[][][] replacements, OutputStream[] outs, String lineSeparator, Set<String> references) throws IOException {
+        final byte[] lineSeparatorBytes = lineSeparator.getBytes(charset);
+        final byte[] buf = data.hasArray() ? null : new byte[BUFFER_SIZE];
+        final int limit = data.limit();
+        int segmentStart = 0;
+        boolean isLineEnded = true;
+        int i = 0;
+        while (i < limit) {
+            final int b = data.get(i) & 0xFF;
+            isLineEnded = false;
+            if (b == '\r' || b == '\n') {
+                final int length = (b == '\r' && i + 1 < limit && data.get(i + 1) == '\n') ? 2 : 1;
+                // 行区切り文字と同じ終端はそのまま出力し、異なる終端だけを置き換える
+                if (!matches(data, i, i + length, lineSeparatorBytes) || lineSeparatorBytes.length != length) {
+                    write(data, segmentStart, i, outs, buf);
+                    for (OutputStream out : outs) {
+                        out.write(lineSeparatorBytes);
+                    }
+                    segmentStart = i + length;
+                }
+                i += length;
+                isLineEnded = true;
+            } else if (isLeadByte(b)) {
+                i += charLength(data, i, limit, b);
+            } else if (b == '@') {
+                final long match = matchMarker(data, i, limit);
+                if (match == -1L) {
+                    i++;
+                    continue;
+                }
+                write(data, segmentStart, i, outs, buf);
+                final int markerIndex = (int) match;
+                for (int j = 0; j < outs.length; j++) {
+                    outs[j].write(replacements[j][markerIndex]);
+                }
+                if (references != null) {
+                    references.add(checkVersions[markerIndex % checkVersions.length]);
+                }
+                i = (int) (match >>> 32);
+                segmentStart = i;
+            } else {
+                i++;
+            }
+        }
+        write(data, segmentStart, Math.min(i, limit), outs, buf);
+        if (!isLineEnded) {
+            for (OutputStream out : outs) {
+                out.write(lineSeparatorBytes);
+            }
+        }
+    }
+    
+    private static void write(ByteBuffer data, int from, int to, OutputStream[] outs, byte[] buf) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        if (buf == null) {
+            for (OutputStream out : outs) {
+                out.write(data.array(), data.arrayOffset() + from, to - from);
+            }
+            return;
+        }
+        final ByteBuffer src = data.duplicate();
+        src.position(from);
+        while (src.position() < to) {
+            final int length = Math.min(buf.length, to - src.position());
+            src.get(buf, 0, length);
+            for (OutputStream out : outs) {
+                out.write(buf, 0, length);
+            }
+        }
+    }
+}
@@ -32,14 +32,15 @@
 package jp.ossc.nimbus.plugin;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-
-import org.apache.maven.plugin.AbstractMojo;
-import org.apache.maven.plugin.MojoExecutionException;
-import org.apache.maven.plugin.MojoFailureException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * copy
@@ -48,257 +49,261 @@ import org.apache.maven.plugin.MojoFailureException;
  * @phase generate-sources
  *
  */
-public class CopyMojo extends AbstractMojo {
+public class CopyMojo extends AbstractVersionFileMojo {
 
     /**
      * @parameter
      */
-    private String version;
+    private String checkTarget;
 
     /**
-     * @parameter
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/copy-${mojoExecution.executionId}.index"
      */
-    private File fromDir;
+    private File indexFile;
 
     /**
-     * @parameter
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/copy-${mojoExecution.executionId}.manifest"
      */
-    private File toDir;
+    private File manifestFile;
 
     /**
-     * @parameter
+     * @parameter default-value="0"
      */
-    private String fromFileExtention;
+    private int checkLineLimit;
 
     /**
-     * @parameter
+     * @parameter default-value="false"
      */
-    private String toFileExtention = "java";
+    private boolean checkUntilDeclaration;
 
     /**
-     * @parameter
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/copy-${mojoExecution.executionId}-report.json"
      */
-    private String encoding;
+    private File reportFile;
 
-    /**
-     * @parameter
-     */
-    private String checkTarget;
+    private String outputCacheConfig;
 
-    /**
-     * Execute.
-     *
-     * @throws MojoExecutionException predictable error
-     * @throws MojoFailureException unpredictable error
-     */
-    public void execute() throws MojoExecutionException, MojoFailureException {
+    private String conditionKey;
 
-        try {
-            getLog().info("copy start");
+    private static final Pattern DECLARATION_PATTERN = Pattern.compile(
+        "\\s*(?:package\\s.*|(?:(?:public|protected|private|abstract|final|static|strictfp)\\s+)*(?:class|interface|enum|@interface)\\s.*)"
+    );
 
-            if (version == null || "".equals(version)) {
-                getLog().info("version is not found config.");
-                version = System.getProperty("nimbus.version.filecontrol.target");
-                if (version == null || "".equals(version)) {
-                    throw new MojoExecutionException("target version is null or empty.");
-                }
-            }
-            getLog().info("check target version=" + version);
+    public CopyMojo() {
+        super("copy");
+    }
 
-            if (fromDir == null) {
-                getLog().error("fromDir is null.");
-                throw new MojoExecutionException("fromDir is null.");
-            } else if (!fromDir.exists()) {
-                getLog().error("fromDir is not exists.");
-                throw new MojoExecutionException("fromDir is not exists.");
-            } else if (!fromDir.isDirectory()) {
-                getLog().error("fromDir is not directory.");
-                throw new MojoExecutionException("fromDir is not directory.");
-            }
-            getLog().info("source copy fromDir=" + fromDir.getAbsolutePath());
+    protected void configureGoal() throws Exception {
+        validateConditionParameters(checkTarget, checkLineLimit, checkUntilDeclaration);
 
-            if (toDir == null) {
-                getLog().error("toDir is null.");
-                throw new MojoExecutionException("toDir is null.");
-            } else if (!toDir.exists()) {
-                if(toDir.mkdirs()) {
-                    getLog().info("toDir is not exists. toDir created.");
-                } else {
-                    getLog().error("toDir is not exists. toDir could not create.");
-                    throw new MojoExecutionException("toDir is not exists. toDir could not create.");
+        if (ByteScanner.MODE_BYTE.equals(scanMode)) {
+            if (checkUntilDeclaration) {
+                getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available with checkUntilDeclaration.");
+            } else if (!ByteScanner.isAscii(checkTarget)) {
+                getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available. checkTarget is not ascii.");
+            } else {
+                try {
+                    byteScanner = new ByteScanner(encoding);
+                } catch (IllegalArgumentException e) {
+                    getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available. " + e.getMessage());
                 }
-            } else if (!toDir.isDirectory()) {
-                getLog().error("toDir is not directory.");
-                throw new MojoExecutionException("toDir is not directory.");
             }
-            getLog().info("source copy toDir=" + toDir.getAbsolutePath());
+        }
+        conditionKey = createConditionKey(checkTarget, encoding, checkLineLimit, checkUntilDeclaration, byteScanner);
+        outputCacheConfig = conditionKey;
+    }
 
-            if (fromFileExtention == null) {
-                getLog().error("fromFileExtention is null.");
-                throw new MojoExecutionException("fromFileExtention is null.");
-            } else if ("".equals(fromFileExtention)) {
-                getLog().error("fromFileExtention is empty.");
-                throw new MojoExecutionException("fromFileExtention is empty.");
-            } else if(fromFileExtention.startsWith(".")) {
-                fromFileExtention = fromFileExtention.substring(1);
-            }
-            getLog().info("source copy fromFileExtention=" + fromFileExtention);
+    protected File getIndexFile() {
+        return indexFile;
+    }
 
-            if (toFileExtention == null) {
-                getLog().error("toFileExtention is null.");
-                throw new MojoExecutionException("toFileExtention is null.");
-            } else if ("".equals(toFileExtention)) {
-                getLog().error("toFileExtention is empty.");
-                throw new MojoExecutionException("toFileExtention is empty.");
-            } else if(toFileExtention.startsWith(".")) {
-                toFileExtention = toFileExtention.substring(1);
-            }
-            getLog().info("source copy toFileExtention=" + toFileExtention);
+    protected String getIndexConfig(String[] targetDirs) {
+        return FingerprintIndex.hash("copy", fromDir.getAbsolutePath(), targetDirs, fromFileExtention, toFileExtention, checkTarget, encoding, checkLineLimit, checkUntilDeclaration, preserveLastModified);
+    }
 
-            if (checkTarget == null || "".equals(checkTarget)) {
-                getLog().error("checkTarget is null or empty.");
-                throw new MojoExecutionException("checkTarget is null or empty.");
-            }
-            getLog().info("checkTarget=" + checkTarget);
+    protected File getManifestFile() {
+        return manifestFile;
+    }
+
+    protected File getReportFile() {
+        return reportFile;
+    }
+
+    protected File[] listTargetFiles() {
+        return listAllTreeFiles("**/.*." + fromFileExtention);
+    }
 
-            if(encoding == null || "".equals(encoding)) {
-                getLog().info("source copy encoding is not found config. read or write of the target file is system default encoding.");
+    protected List<File> process(File file, List<String> messages, List<File> changedFiles, Set<String> references, FingerprintIndex.Fingerprint fingerprint) throws Exception {
+        long time = System.nanoTime();
+        List<VersionCondition> conditions = null;
+        byte[] data = null;
+        long lastModified = 0L;
+        long length = 0L;
+        String[] cacheKeys = null;
+        if (scanCache != null || outputCache != null) {
+            lastModified = file.lastModified();
+            length = file.length();
+        }
+        if (scanCache != null) {
+            conditions = scanCache.getConditions(file, conditionKey, lastModified, length);
+        }
+        if (outputCache != null) {
+            // バージョン条件を評価する前に、入力ファイルの内容のハッシュ値でキャッシュから復元する
+            String inputHash = null;
+            if (scanCache == null) {
+                data = FileUtility.dataRead(file);
+                report.addBytesIn(data.length);
+                inputHash = FingerprintIndex.hash(data);
             } else {
-                getLog().info("source copy encoding=" + encoding);
+                inputHash = scanCache.hash(file);
+            }
+            if (fingerprint != null) {
+                fingerprint.setHash(inputHash);
             }
+            cacheKeys = createCacheKeys(inputHash, outputCacheConfig);
+            time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+            List<File> restored = restore(file, cacheKeys, messages, changedFiles);
+            if (restored != null) {
+                if (references != null) {
+                    if (conditions == null) {
+                        references.add(FingerprintIndex.UNKNOWN_REFERENCES);
+                    } else {
+                        for (VersionCondition condition : conditions) {
+                            condition.addBounds(references);
+                        }
+                    }
+                }
+                if (!restored.isEmpty()) {
+                    report.addMatched();
+                }
+                report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+                return restored;
+            }
+        }
+        if (conditions == null) {
+            final long readTime = System.currentTimeMillis();
+            if (data == null) {
+                data = FileUtility.dataRead(file);
+                report.addBytesIn(data.length);
+                time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+                if (fingerprint != null) {
+                    // 共有キャッシュのバージョン条件を使用した場合は、評価した内容が分からないためハッシュ値を記録しない
+                    fingerprint.setHash(FingerprintIndex.hash(data));
+                }
+            }
+            conditions = findConditions(data, checkTarget, encoding, checkLineLimit, checkUntilDeclaration, byteScanner);
+            if (scanCache != null) {
+                scanCache.putConditions(file, conditionKey, lastModified, length, readTime, conditions);
+            }
+        }
+        if (references != null) {
+            for (VersionCondition condition : conditions) {
+                condition.addBounds(references);
+            }
+        }
+        File[] toFiles = new File[targets.size()];
+        boolean isCopied = false;
+        if (!conditions.isEmpty()) {
+            for (int i = 0; i < toFiles.length; i++) {
+                if (isSatisfied(conditions, targets.get(i))) {
+                    toFiles[i] = getToFile(targets.get(i), file);
+                    isCopied = true;
+                }
+            }
+        }
+        time = report.addPhaseTimeFrom(GoalReport.PHASE_EVALUATION, time);
+        List<File> result = new ArrayList<File>();
+        if (!isCopied) {
+            store(file, cacheKeys, toFiles, lastModified, length);
+            return result;
+        }
+        report.addMatched();
+        if (data == null) {
+            data = FileUtility.dataRead(file);
+            report.addBytesIn(data.length);
+            time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+        }
+        for (File toFile : toFiles) {
+            if (toFile != null) {
+                write(file, data, toFile, messages, changedFiles);
+                result.add(toFile);
+            }
+        }
+        report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+        store(file, cacheKeys, toFiles, lastModified, length);
+        return result;
+    }
 
-            FileUtility rFromDir = new FileUtility(fromDir);
-            File[] copyTargetFiles = rFromDir.listAllTreeFiles("**/.*." + fromFileExtention);
-            for(File copyTargetFile : copyTargetFiles) {
-                checkAndCopy(copyTargetFile);
+    /**
+     * 指定された対象バージョンが、全てのバージョン条件を満たすか判定する。<p>
+     *
+     * @param conditions バージョン条件のリスト
+     * @param target 対象バージョン
+     * @return 全てのバージョン条件を満たす場合true
+     */
+    static boolean isSatisfied(List<VersionCondition> conditions, Target target) {
+        for (VersionCondition condition : conditions) {
+            if (!condition.isSatisfied(target.intVersion)) {
+                return false;
             }
-        } catch (Throwable th) {
-            getLog().error(th.getMessage());
-            throw new MojoFailureException("copy failed");
         }
+        return true;
     }
 
-    private void checkAndCopy(File file) throws Exception {
+    /**
+     * 共有キャッシュにバージョン条件を格納するキーを生成する。<p>
+     * 同じ設定値のゴールは、同じ入力ファイルのバージョン条件を共有する。<br>
+     *
+     * @param checkTarget チェック対象文字列
+     * @param encoding エンコーディング
+     * @param checkLineLimit 検索する先頭からの行数
+     * @param checkUntilDeclaration パッケージ宣言または型宣言までを検索する場合true
+     * @param byteScanner バイト列のまま検索する場合のスキャナ。文字にデコードして検索する場合はnull
+     * @return キー
+     */
+    static String createConditionKey(String checkTarget, String encoding, int checkLineLimit, boolean checkUntilDeclaration, ByteScanner byteScanner) {
+        return FingerprintIndex.hash("copy", checkTarget, encoding, checkLineLimit, checkUntilDeclaration, byteScanner == null);
+    }
 
+    /**
+     * 指定されたファイルの内容から、チェック対象文字列を含む行を検索して、バージョン条件を取得する。<p>
+     *
+     * @param data ファイルの内容
+     * @param checkTarget チェック対象文字列
+     * @param encoding エンコーディング
+     * @param checkLineLimit 検索する先頭からの行数。0の場合は、全ての行
+     * @param checkUntilDeclaration パッケージ宣言または型宣言までを検索する場合true
+     * @param byteScanner バイト列のまま検索する場合のスキャナ。文字にデコードして検索する場合はnull
+     * @return バージョン条件のリスト
+     * @exception Exception デコードに失敗した場合、またはバージョン条件が不正な場合
+     */
+    static List<VersionCondition> findConditions(byte[] data, String checkTarget, String encoding, int checkLineLimit, boolean checkUntilDeclaration, ByteScanner byteScanner) throws Exception {
+        List<VersionCondition> conditions = new ArrayList<VersionCondition>();
+        if (byteScanner != null) {
+            for (String line : byteScanner.findLines(ByteBuffer.wrap(data), checkTarget, checkLineLimit)) {
+                conditions.add(VersionCondition.compile(line, checkTarget));
+            }
+            return conditions;
+        }
         Reader reader = null;
         BufferedReader br = null;
         try {
-            boolean isCopyTarget = true;
-            boolean isVersionCheckTargetExists = false;
-            reader = encoding == null ? new InputStreamReader(new FileInputStream(file)) : new InputStreamReader(new FileInputStream(file), encoding);
+            reader = encoding == null ? new InputStreamReader(new ByteArrayInputStream(data)) : new InputStreamReader(new ByteArrayInputStream(data), encoding);
             br = new BufferedReader(reader);
             String line = null;
+            int lineCount = 0;
             while ((line = br.readLine()) != null) {
+                if (checkLineLimit > 0 && ++lineCount > checkLineLimit) {
+                    break;
+                }
+                if (checkUntilDeclaration && DECLARATION_PATTERN.matcher(line).matches()) {
+                    break;
+                }
                 if(line.indexOf(checkTarget) != -1) {
-                    isVersionCheckTargetExists = true;
-                    String[] conditions = line.split(checkTarget);
-                    if(conditions.length != 1 && conditions.length != 2) {
-                        throw new Exception("Version condition is invalid. condition=" + line);
-                    }
-                    int low_ver = Integer.MIN_VALUE;
-                    String low_con = null;
-                    int high_ver = Integer.MAX_VALUE;
-                    String high_con = null;
-                    int intVersion = Integer.parseInt(version);
-                    StringBuilder nsb = new StringBuilder();
-                    StringBuilder csb = new StringBuilder();
-                    char[] chars = conditions[0].toCharArray();
-                    for(char c : chars) {
-                        switch(c){
-                            case '0':
-                            case '1':
-                            case '2':
-                            case '3':
-                            case '4':
-                            case '5':
-                            case '6':
-                            case '7':
-                            case '8':
-                            case '9':
-                                nsb.append(c);
-                                break;
-                            case '<':
-                            case '=':
-                                csb.append(c);
-                                break;
-                        }
-                    }
-                    if(nsb.length() != 0 && csb.length() != 0) {
-                        low_ver = Integer.parseInt(nsb.toString());
-                        low_con = csb.toString();
-                    }
-                    if(conditions.length == 2) {
-                        nsb = new StringBuilder();
-                        csb = new StringBuilder();
-                        chars = conditions[1].toCharArray();
-                        for(char c : chars) {
-                            switch(c){
-                                case '0':
-                                case '1':
-                                case '2':
-                                case '3':
-                                case '4':
-                                case '5':
-                                case '6':
-                                case '7':
-                                case '8':
-                                case '9':
-                                    nsb.append(c);
-                                    break;
-                                case '<':
-                                case '=':
-                                    csb.append(c);
-                                    break;
-                            }
-                        }
-                        if(nsb.length() != 0 && csb.length() != 0) {
-                            high_ver = Integer.parseInt(nsb.toString());
-                            high_con = csb.toString();
-                        }
-                    }
-                    if(low_con != null && high_con != null) {
-                        if("<=".equals(low_con)) {
-                            isCopyTarget = (low_ver <= intVersion) && isCopyTarget;
-                        } else if("<".equals(low_con)) {
-                            isCopyTarget = (low_ver < intVersion) && isCopyTarget;
-                        } else if("=".equals(low_con)) {
-                            isCopyTarget = (low_ver == intVersion) && isCopyTarget;
-                        }
-                        if("<=".equals(high_con)) {
-                            isCopyTarget = (intVersion <= high_ver) && isCopyTarget;
-                        } else if("<".equals(high_con)) {
-                            isCopyTarget = (intVersion < high_ver) && isCopyTarget;
-                        } else if("=".equals(high_con)) {
-                            isCopyTarget = (intVersion == high_ver) && isCopyTarget;
-                        }
-                    } else if(low_con != null) {
-                        if("<=".equals(low_con)) {
-                            isCopyTarget = (low_ver <= intVersion) && isCopyTarget;
-                        } else if("<".equals(low_con)) {
-                            isCopyTarget = (low_ver < intVersion) && isCopyTarget;
-                        } else if("=".equals(low_con)) {
-                            isCopyTarget = (low_ver == intVersion) && isCopyTarget;
-                        }
-                    } else if(high_con != null) {
-                        if("<=".equals(high_con)) {
-                            isCopyTarget = (intVersion <= high_ver) && isCopyTarget;
-                        } else if("<".equals(high_con)) {
-                            isCopyTarget = (intVersion < high_ver) && isCopyTarget;
-                        } else if("=".equals(high_con)) {
-                            isCopyTarget = (intVersion == high_ver) && isCopyTarget;
-                        }
-                    } else {
-                        throw new Exception("Version condition is invalid. condition=" + line);
-                    }
+                    conditions.add(VersionCondition.compile(line, checkTarget));
                 }
-
-            }
-            if(isVersionCheckTargetExists && isCopyTarget) {
-                String tmpFileName = file.getAbsolutePath().substring(fromDir.getAbsolutePath().length());
-                File toFile = new File(toDir.getAbsolutePath() + tmpFileName.substring(0, tmpFileName.lastIndexOf(".") + 1) + toFileExtention);
-                FileUtility.dataCopy(file, toFile);
-                getLog().info("File copy from=" + file.getAbsolutePath() + " to=" + toFile.getAbsolutePath());
             }
+            return conditions;
         } finally {
             if (br != null) {
                 try {
@@ -316,5 +321,4 @@ public class CopyMojo extends AbstractMojo {
 
 
     }
-
-}
\ No newline at end of file
+}
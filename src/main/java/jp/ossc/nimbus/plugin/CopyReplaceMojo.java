@@ -0,0 +1,432 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * copy-replace
+ *
+ * copyゴールのバージョン条件の判定と、replaceゴールのマーカーの置換を、1回のディレクトリ走査と、入力ファイル毎に1回の読み込み、出力ファイル毎に1回の書き込みで行う。<p>
+ * copyゴールとreplaceゴールを順に実行する場合とは、以下が異なる。<br>
+ * <ul>
+ *   <li>マーカーは、バージョン条件を満たしてコピーする入力ファイルにのみ適用する。バージョン条件を含まない入力ファイルは、replaceTargetDirs配下でも出力しない。</li>
+ *   <li>replaceTargetDirsを指定した場合は、その配下の入力ファイルにのみマーカーを適用し、それ以外の入力ファイルはそのままコピーする。指定しない場合は、コピーする全ての入力ファイルにマーカーを適用する。</li>
+ * </ul>
+ *
+ * @goal copy-replace
+ * @phase generate-sources
+ *
+ */
+public class CopyReplaceMojo extends AbstractVersionFileMojo {
+
+    /**
+     * @parameter
+     */
+    private String[] checkVersions;
+
+    /**
+     * @parameter
+     */
+    private String[] replaceTargetDirs;
+
+    /**
+     * @parameter
+     */
+    private String checkTarget;
+
+    /**
+     * @parameter
+     */
+    private String checkTargetPrefix;
+
+    /**
+     * @parameter default-value="singlePass"
+     */
+    private String replaceMode = MarkerReplacer.MODE_SINGLE_PASS;
+
+    /**
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/copy-replace-${mojoExecution.executionId}.index"
+     */
+    private File indexFile;
+
+    /**
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/copy-replace-${mojoExecution.executionId}.manifest"
+     */
+    private File manifestFile;
+
+    /**
+     * @parameter default-value="0"
+     */
+    private int checkLineLimit;
+
+    /**
+     * @parameter default-value="false"
+     */
+    private boolean checkUntilDeclaration;
+
+    /**
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/copy-replace-${mojoExecution.executionId}-report.json"
+     */
+    private File reportFile;
+
+    private String conditionKey;
+
+    private String copyOutputCacheConfig;
+
+    private String replaceOutputCacheConfig;
+
+    private volatile Set<File> replaceTargetFiles;
+
+    public CopyReplaceMojo() {
+        super("copy-replace");
+    }
+
+    protected void configureGoal() throws Exception {
+        if (replaceTargetDirs != null) {
+            for (String replaceTargetDir : replaceTargetDirs) {
+                getLog().info("source copy-replace replaceTargetDir=" + replaceTargetDir);
+            }
+        }
+
+        validateConditionParameters(checkTarget, checkLineLimit, checkUntilDeclaration);
+
+        createMarkerReplacers(checkVersions, checkTargetPrefix, replaceMode);
+
+        if (ByteScanner.MODE_BYTE.equals(scanMode)) {
+            if (targets.get(0).markerReplacer.isLegacy()) {
+                getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available with replaceMode=" + MarkerReplacer.MODE_LEGACY + ".");
+            } else if (checkUntilDeclaration) {
+                getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available with checkUntilDeclaration.");
+            } else if (!ByteScanner.isAscii(checkTarget)) {
+                getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available. checkTarget is not ascii.");
+            } else {
+                try {
+                    byteScanner = new ByteScanner(encoding, checkVersions, checkTargetPrefix);
+                    for (Target target : targets) {
+                        target.replacements = byteScanner.createReplacements(target.markerReplacer);
+                    }
+                } catch (IllegalArgumentException e) {
+                    getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available. " + e.getMessage());
+                }
+            }
+        }
+        conditionKey = CopyMojo.createConditionKey(checkTarget, encoding, checkLineLimit, checkUntilDeclaration, byteScanner);
+        copyOutputCacheConfig = FingerprintIndex.hash("copy-replace", conditionKey);
+        replaceOutputCacheConfig = FingerprintIndex.hash("copy-replace", conditionKey, checkVersions, checkTargetPrefix, replaceMode, LINE_SEP);
+    }
+
+    protected File getIndexFile() {
+        return indexFile;
+    }
+
+    protected String getIndexConfig(String[] targetDirs) {
+        return FingerprintIndex.hash("copy-replace", checkVersions, fromDir.getAbsolutePath(), targetDirs, replaceTargetDirs, fromFileExtention, toFileExtention, checkTarget, checkTargetPrefix, encoding, replaceMode, checkLineLimit, checkUntilDeclaration, preserveLastModified, byteScanner == null);
+    }
+
+    protected File getManifestFile() {
+        return manifestFile;
+    }
+
+    protected File getReportFile() {
+        return reportFile;
+    }
+
+    protected File[] listTargetFiles() {
+        replaceTargetFiles = listReplaceTargetFiles();
+        return listAllTreeFiles("**/.*." + fromFileExtention);
+    }
+
+    private Set<File> listReplaceTargetFiles() {
+        if (replaceTargetDirs == null || replaceTargetDirs.length == 0) {
+            return null;
+        }
+        Set<File> result = new HashSet<File>();
+        for (String replaceTargetDirName : replaceTargetDirs) {
+            result.addAll(Arrays.asList(listAllTreeFiles(replaceTargetDirName + "/.*\\\\." + fromFileExtention)));
+        }
+        return result;
+    }
+
+    /**
+     * 最後に実行した{@link #execute()}で検証したパラメータで、指定された入力ファイルを再生成する。<p>
+     * watchゴールから変更を検知した入力ファイルを指定するため、インデックスによる変更の判定は行わず、処理した結果をインデックスとマニフェストに記録する。<br>
+     * 置換対象ディレクトリ配下の入力ファイルは、ディレクトリの追加や削除に合わせて検索し直す。<br>
+     *
+     * @param files 入力ファイルの配列
+     * @exception Exception 処理に失敗した場合
+     */
+    void regenerate(File[] files) throws Exception {
+        reset();
+        replaceTargetFiles = listReplaceTargetFiles();
+        processFiles(files, index, false);
+        if (index != null) {
+            index.store();
+        }
+        prune();
+        report.finish(outputWriter);
+        getLog().info("output files written=" + outputWriter.getWrittenCount() + " unchanged=" + outputWriter.getUnchangedCount());
+    }
+
+    File getFromDir() {
+        return fromDir;
+    }
+
+    protected List<File> process(File file, List<String> messages, List<File> changedFiles, Set<String> references, FingerprintIndex.Fingerprint fingerprint) throws Exception {
+        long time = System.nanoTime();
+        final Set<File> fReplaceTargetFiles = replaceTargetFiles;
+        final boolean isReplaceTarget = fReplaceTargetFiles == null || fReplaceTargetFiles.contains(file);
+        List<VersionCondition> conditions = null;
+        byte[] data = null;
+        long lastModified = 0L;
+        long length = 0L;
+        String[] cacheKeys = null;
+        if (scanCache != null || outputCache != null) {
+            lastModified = file.lastModified();
+            length = file.length();
+        }
+        if (scanCache != null) {
+            conditions = scanCache.getConditions(file, conditionKey, lastModified, length);
+        }
+        if (outputCache != null) {
+            // バージョン条件を評価する前に、入力ファイルの内容のハッシュ値でキャッシュから復元する
+            String inputHash = null;
+            if (scanCache == null) {
+                data = FileUtility.dataRead(file);
+                report.addBytesIn(data.length);
+                inputHash = FingerprintIndex.hash(data);
+            } else {
+                inputHash = scanCache.hash(file);
+            }
+            if (fingerprint != null) {
+                fingerprint.setHash(inputHash);
+            }
+            cacheKeys = createCacheKeys(inputHash, isReplaceTarget ? replaceOutputCacheConfig : copyOutputCacheConfig);
+            time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+            List<File> restored = restore(file, cacheKeys, messages, changedFiles);
+            if (restored != null) {
+                if (references != null) {
+                    if (conditions == null) {
+                        references.add(FingerprintIndex.UNKNOWN_REFERENCES);
+                    } else {
+                        for (VersionCondition condition : conditions) {
+                            condition.addBounds(references);
+                        }
+                        if (isReplaceTarget && !restored.isEmpty()) {
+                            // 復元した出力からは置換したマーカーが分からないため、全ての比較バージョンに依存するとみなす
+                            references.addAll(Arrays.asList(checkVersions));
+                        }
+                    }
+                }
+                if (!restored.isEmpty()) {
+                    report.addMatched();
+                }
+                report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+                return restored;
+            }
+        }
+        if (conditions == null) {
+            final long readTime = System.currentTimeMillis();
+            if (data == null) {
+                data = FileUtility.dataRead(file);
+                report.addBytesIn(data.length);
+                if (fingerprint != null) {
+                    fingerprint.setHash(FingerprintIndex.hash(data));
+                }
+                time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+            }
+            conditions = CopyMojo.findConditions(data, checkTarget, encoding, checkLineLimit, checkUntilDeclaration, byteScanner);
+            if (scanCache != null) {
+                scanCache.putConditions(file, conditionKey, lastModified, length, readTime, conditions);
+            }
+        }
+        if (references != null) {
+            for (VersionCondition condition : conditions) {
+                condition.addBounds(references);
+            }
+        }
+        File[] toFiles = new File[targets.size()];
+        List<Target> copyTargets = new ArrayList<Target>();
+        if (!conditions.isEmpty()) {
+            for (int i = 0; i < toFiles.length; i++) {
+                if (CopyMojo.isSatisfied(conditions, targets.get(i))) {
+                    toFiles[i] = getToFile(targets.get(i), file);
+                    copyTargets.add(targets.get(i));
+                }
+            }
+        }
+        time = report.addPhaseTimeFrom(GoalReport.PHASE_EVALUATION, time);
+        List<File> result = new ArrayList<File>();
+        if (copyTargets.isEmpty()) {
+            store(file, cacheKeys, toFiles, lastModified, length);
+            return result;
+        }
+        report.addMatched();
+        if (data == null) {
+            data = FileUtility.dataRead(file);
+            report.addBytesIn(data.length);
+            if (fingerprint != null) {
+                fingerprint.setHash(FingerprintIndex.hash(data));
+            }
+            time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+        }
+        if (isReplaceTarget) {
+            result = replace(file, data, copyTargets, messages, changedFiles, references, time);
+        } else {
+            for (File toFile : toFiles) {
+                if (toFile != null) {
+                    write(file, data, toFile, messages, changedFiles);
+                    result.add(toFile);
+                }
+            }
+            report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+        }
+        store(file, cacheKeys, toFiles, lastModified, length);
+        return result;
+    }
+
+    private List<File> replace(File file, byte[] data, List<Target> replaceTargets, List<String> messages, List<File> changedFiles, Set<String> references, long time) throws Exception {
+        File[] toFiles = new File[replaceTargets.size()];
+        File[] tmpFiles = new File[toFiles.length];
+        Writer[] writers = new Writer[toFiles.length];
+        OutputStream[] outs = new OutputStream[toFiles.length];
+        BufferedReader br = null;
+        try {
+            if (byteScanner != null) {
+                byte[][][] replacements = new byte[toFiles.length][][];
+                for (int i = 0; i < toFiles.length; i++) {
+                    toFiles[i] = getToFile(replaceTargets.get(i), file);
+                    tmpFiles[i] = FileUtility.createTempFile(toFiles[i]);
+                    outs[i] = new BufferedOutputStream(new FileOutputStream(tmpFiles[i]));
+                    replacements[i] = replaceTargets.get(i).replacements;
+                }
+                time = report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+                // 置換と書き込みは1回の走査で行うため、評価の処理時間に含める
+                byteScanner.replace(ByteBuffer.wrap(data), replacements, outs, LINE_SEP, references);
+                time = report.addPhaseTimeFrom(GoalReport.PHASE_EVALUATION, time);
+                for (int i = 0; i < outs.length; i++) {
+                    OutputStream out = outs[i];
+                    outs[i] = null;
+                    out.close();
+                }
+                List<File> result = commit(file, toFiles, tmpFiles, messages, changedFiles);
+                report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+                return result;
+            }
+            for (int i = 0; i < toFiles.length; i++) {
+                toFiles[i] = getToFile(replaceTargets.get(i), file);
+                tmpFiles[i] = FileUtility.createTempFile(toFiles[i]);
+                writers[i] = new BufferedWriter(
+                    encoding == null ? new OutputStreamWriter(new FileOutputStream(tmpFiles[i])) : new OutputStreamWriter(new FileOutputStream(tmpFiles[i]), encoding)
+                );
+            }
+            br = createReader(data);
+            time = report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+            // 読み込み済みのデータから行を切り出す時間は、書き込みの処理時間に含める
+            long evaluationTime = 0;
+            long writeTime = 0;
+            String[] replacedLines = new String[writers.length];
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                long now = System.nanoTime();
+                writeTime += now - time;
+                time = now;
+                for (int i = 0; i < writers.length; i++) {
+                    // 全ての対象で同じマーカーを置換するため、比較バージョンは最初の対象でのみ記録する
+                    replacedLines[i] = replaceTargets.get(i).markerReplacer.replace(line, i == 0 ? references : null);
+                }
+                now = System.nanoTime();
+                evaluationTime += now - time;
+                time = now;
+                for (int i = 0; i < writers.length; i++) {
+                    writers[i].write(replacedLines[i]);
+                    writers[i].write(LINE_SEP);
+                }
+            }
+            for (int i = 0; i < writers.length; i++) {
+                Writer writer = writers[i];
+                writers[i] = null;
+                writer.close();
+            }
+            List<File> result = commit(file, toFiles, tmpFiles, messages, changedFiles);
+            report.addPhaseTime(GoalReport.PHASE_EVALUATION, evaluationTime);
+            report.addPhaseTime(GoalReport.PHASE_WRITE, writeTime);
+            report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+            return result;
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (Exception e) {
+                }
+            }
+            for (Writer writer : writers) {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (Exception e) {
+                    }
+                }
+            }
+            for (OutputStream out : outs) {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (Exception e) {
+                    }
+                }
+            }
+            deleteTempFiles(tmpFiles);
+        }
+    }
+
+    private BufferedReader createReader(byte[] data) throws Exception {
+        Reader reader = encoding == null ? new InputStreamReader(new ByteArrayInputStream(data)) : new InputStreamReader(new ByteArrayInputStream(data), encoding);
+        return new BufferedReader(reader);
+    }
+}
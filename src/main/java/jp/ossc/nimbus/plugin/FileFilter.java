@@ -34,15 +34,48 @@ package jp.ossc.nimbus.plugin;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * 正規表現でファイル名を判定するフィルタ。<p>
+ * 正規表現が、リテラル、前方一致（"abc.*"）、後方一致（".*\\.java"）、および前方後方一致（"abc.*\\.java"）の場合は、
+ * 正規表現を使わずに文字列操作で判定する。<br>
+ * リテラル部分には、任意の1文字にマッチする"."を含んでも良い（".*.java"など）。<br>
+ * コンパイルした正規表現は、全てのインスタンスで共有するキャッシュから再利用する。<br>
+ */
 public class FileFilter implements FilenameFilter, Serializable{
     
     private static final long serialVersionUID = -7076739508599572780L;
     
+    private static final int MATCH_REGEX = 0;
+    
+    private static final int MATCH_LITERAL = 1;
+    
+    private static final int MATCH_PREFIX_SUFFIX = 2;
+    
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+    
+    private static final int MAX_CACHE_SIZE = 10000;
+    
+    private static final ConcurrentMap<String, Pattern> PATTERN_CACHE = new ConcurrentHashMap<String, Pattern>();
+    
     private Pattern pattern;
     
+    private int matchType;
+    
+    private String prefix;
+    
+    private String suffix;
+    
+    private boolean[] prefixWildcards;
+    
+    private boolean[] suffixWildcards;
+    
     /**
      * 正規表現を指定しないフィルタのインスタンスを生成する。<p>
      */
@@ -75,11 +108,7 @@ public class FileFilter implements FilenameFilter, Serializable{
      * @param regex 正規表現
      */
     public void setPattern(String regex){
-        if(regex == null){
-            pattern = null;
-        }else{
-            pattern = Pattern.compile(regex);
-        }
+        setPattern(regex, 0);
     }
     
     /**
@@ -89,11 +118,144 @@ public class FileFilter implements FilenameFilter, Serializable{
      * @param flags マッチフラグ
      */
     public void setPattern(String regex, int flags){
+        matchType = MATCH_REGEX;
+        prefix = null;
+        suffix = null;
+        prefixWildcards = null;
+        suffixWildcards = null;
         if(regex == null){
             pattern = null;
         }else{
-            pattern = Pattern.compile(regex, flags);
+            pattern = compile(regex, flags);
+            if(flags == 0){
+                analyze(regex);
+            }
+        }
+    }
+    
+    private static Pattern compile(String regex, int flags){
+        final String key = flags + ":" + regex;
+        Pattern result = PATTERN_CACHE.get(key);
+        if(result == null){
+            result = Pattern.compile(regex, flags);
+            if(PATTERN_CACHE.size() < MAX_CACHE_SIZE){
+                PATTERN_CACHE.putIfAbsent(key, result);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 正規表現が、リテラルと"."と高々1つの".*"だけで構成されている場合に、文字列操作で判定するように設定する。<p>
+     *
+     * @param regex 正規表現
+     */
+    private void analyze(String regex){
+        final List<String> literals = new ArrayList<String>();
+        final List<boolean[]> wildcards = new ArrayList<boolean[]>();
+        StringBuilder buf = new StringBuilder();
+        List<Integer> wildcardIndexes = new ArrayList<Integer>();
+        for(int i = 0, length = regex.length(); i < length; i++){
+            final char c = regex.charAt(i);
+            if(c == '\\'){
+                // 英数字のエスケープは、\dや\Qなどの特殊な意味を持つ
+                if(i + 1 >= length || Character.isLetterOrDigit(regex.charAt(i + 1))){
+                    return;
+                }
+                buf.append(regex.charAt(++i));
+            }else if(c == '.' && i + 1 < length && regex.charAt(i + 1) == '*'){
+                if(i + 2 < length && (regex.charAt(i + 2) == '?' || regex.charAt(i + 2) == '+')){
+                    return;
+                }
+                literals.add(buf.toString());
+                wildcards.add(toWildcards(buf.length(), wildcardIndexes));
+                buf = new StringBuilder();
+                wildcardIndexes = new ArrayList<Integer>();
+                i++;
+            }else if(c == '.'){
+                if(i + 1 < length && "?+{".indexOf(regex.charAt(i + 1)) != -1){
+                    return;
+                }
+                wildcardIndexes.add(buf.length());
+                buf.append(c);
+            }else if(REGEX_META_CHARS.indexOf(c) != -1){
+                return;
+            }else{
+                buf.append(c);
+            }
+        }
+        literals.add(buf.toString());
+        wildcards.add(toWildcards(buf.length(), wildcardIndexes));
+        switch(literals.size()){
+        case 1:
+            matchType = MATCH_LITERAL;
+            prefix = literals.get(0);
+            prefixWildcards = wildcards.get(0);
+            break;
+        case 2:
+            matchType = MATCH_PREFIX_SUFFIX;
+            prefix = literals.get(0);
+            prefixWildcards = wildcards.get(0);
+            suffix = literals.get(1);
+            suffixWildcards = wildcards.get(1);
+            break;
+        default:
+        }
+    }
+    
+    private static boolean[] toWildcards(int length, List<Integer> indexes){
+        if(indexes.isEmpty()){
+            return null;
+        }
+        final boolean[] result = new boolean[length];
+        for(Integer index : indexes){
+            result[index] = true;
+        }
+        return result;
+    }
+    
+    /**
+     * 指定された位置から、"."を含むリテラルと一致するか判定する。<p>
+     *
+     * @param fileName ファイル名
+     * @param offset 比較を開始する位置
+     * @param literal リテラル
+     * @param wildcards リテラルの"."の位置。"."を含まない場合はnull
+     * @return 一致する場合true
+     */
+    private static boolean matches(String fileName, int offset, String literal, boolean[] wildcards){
+        if(wildcards == null){
+            return fileName.startsWith(literal, offset);
+        }
+        for(int i = 0; i < wildcards.length; i++){
+            final char c = fileName.charAt(offset + i);
+            if(wildcards[i] ? isLineTerminator(c) : c != literal.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isLineTerminator(char c){
+        switch(c){
+        case '\n':
+        case '\r':
+        case '\u0085':
+        case '\u2028':
+        case '\u2029':
+            return true;
+        default:
+            return false;
+        }
+    }
+    
+    private static boolean hasSurrogate(String fileName){
+        for(int i = 0, length = fileName.length(); i < length; i++){
+            if(Character.isSurrogate(fileName.charAt(i))){
+                return true;
+            }
         }
+        return false;
     }
     
     /**
@@ -107,7 +269,28 @@ public class FileFilter implements FilenameFilter, Serializable{
         if(pattern == null){
             return false;
         }
-        final Matcher matcher = pattern.matcher(fileName);
-        return matcher.matches();
+        // "."はサロゲートペアを1文字として扱うため、サロゲートを含むファイル名は正規表現で判定する
+        if(matchType != MATCH_REGEX && (prefixWildcards != null || suffixWildcards != null) && hasSurrogate(fileName)){
+            return pattern.matcher(fileName).matches();
+        }
+        switch(matchType){
+        case MATCH_LITERAL:
+            return fileName.length() == prefix.length() && matches(fileName, 0, prefix, prefixWildcards);
+        case MATCH_PREFIX_SUFFIX:
+            final int end = fileName.length() - suffix.length();
+            if(end < prefix.length() || !matches(fileName, 0, prefix, prefixWildcards) || !matches(fileName, end, suffix, suffixWildcards)){
+                return false;
+            }
+            // ".*"は行終端文字にマッチしない
+            for(int i = prefix.length(); i < end; i++){
+                if(isLineTerminator(fileName.charAt(i))){
+                    return false;
+                }
+            }
+            return true;
+        default:
+            final Matcher matcher = pattern.matcher(fileName);
+            return matcher.matches();
+        }
     }
 }
\ No newline at end of file
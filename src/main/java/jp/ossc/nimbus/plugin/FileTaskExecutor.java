@@ -0,0 +1,215 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ファイル単位の処理を複数スレッドで並列に実行するエグゼキュータ。<p>
+ * 各ファイルの処理は{@link Task}としてワーカースレッドで実行され、その結果とログメッセージは、
+ * 呼び出し元のスレッドで、ファイル配列の順序通りに{@link Handler}に渡される。<br>
+ * いずれかのファイルの処理で例外が発生した場合は、未着手のファイルの処理を中止し、実行中の処理の終了を待ってから、最初に発生した例外をスローする。<br>
+ * スレッド数が1の場合は、呼び出し元のスレッドで順番に処理する。<br>
+ */
+public class FileTaskExecutor {
+    
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    
+    private final int threads;
+    
+    /**
+     * 指定されたスレッド数のエグゼキュータのインスタンスを生成する。<p>
+     *
+     * @param threads スレッド数
+     */
+    public FileTaskExecutor(int threads) {
+        this.threads = threads;
+    }
+    
+    /**
+     * 指定されたファイル配列の各ファイルを処理する。<p>
+     *
+     * @param files 処理対象のファイル配列
+     * @param task ファイル単位の処理
+     * @param handler 処理結果を順番に受け取るハンドラ
+     * @exception Exception いずれかのファイルの処理、またはハンドラで例外が発生した場合
+     */
+    public <R> void execute(File[] files, final Task<R> task, Handler<R> handler) throws Exception {
+        if (threads <= 1 || files.length <= 1) {
+            for (File file : files) {
+                final List<String> messages = new ArrayList<String>();
+                final R result = task.execute(file, messages);
+                handler.handle(file, result, messages);
+            }
+            return;
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(threads, files.length),
+            new WorkerThreadFactory()
+        );
+        try {
+            final List<Future<TaskResult<R>>> futures = new ArrayList<Future<TaskResult<R>>>(files.length);
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<TaskResult<R>>() {
+                    public TaskResult<R> call() throws Exception {
+                        if (failure.get() != null) {
+                            return null;
+                        }
+                        final List<String> messages = new ArrayList<String>();
+                        try {
+                            return new TaskResult<R>(task.execute(file, messages), messages);
+                        } catch (Throwable th) {
+                            failure.compareAndSet(null, th);
+                            return null;
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < files.length; i++) {
+                final TaskResult<R> taskResult;
+                try {
+                    taskResult = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    failure.compareAndSet(null, e.getCause());
+                    break;
+                }
+                if (taskResult == null) {
+                    break;
+                }
+                try {
+                    handler.handle(files[i], taskResult.result, taskResult.messages);
+                } catch (Throwable th) {
+                    failure.compareAndSet(null, th);
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            // 実行中のワーカーが、失敗後に出力をコミットし続けないように、全ての終了を待つ
+            boolean isInterrupted = false;
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final Throwable th = failure.get();
+        if (th instanceof Exception) {
+            throw (Exception) th;
+        } else if (th instanceof Error) {
+            throw (Error) th;
+        } else if (th != null) {
+            throw new Exception(th);
+        }
+    }
+    
+    /**
+     * ファイル単位の処理。<p>
+     * ワーカースレッドから並行に呼び出される。<br>
+     */
+    public interface Task<R> {
+        
+        /**
+         * 指定されたファイルを処理する。<p>
+         *
+         * @param file 処理対象のファイル
+         * @param messages 処理結果として出力するログメッセージを追加するリスト
+         * @return 処理結果
+         * @exception Exception 処理に失敗した場合
+         */
+        public R execute(File file, List<String> messages) throws Exception;
+    }
+    
+    /**
+     * 処理結果のハンドラ。<p>
+     * 呼び出し元のスレッドから、ファイル配列の順序通りに呼び出される。<br>
+     */
+    public interface Handler<R> {
+        
+        /**
+         * 指定されたファイルの処理結果を受け取る。<p>
+         *
+         * @param file 処理対象のファイル
+         * @param result 処理結果
+         * @param messages 処理結果として出力するログメッセージのリスト
+         * @exception Exception 処理に失敗した場合
+         */
+        public void handle(File file, R result, List<String> messages) throws Exception;
+    }
+    
+    private static class TaskResult<R> {
+        
+        final R result;
+        
+        final List<String> messages;
+        
+        TaskResult(R result, List<String> messages) {
+            this.result = result;
+            this.messages = messages;
+        }
+    }
+    
+    private static class WorkerThreadFactory implements ThreadFactory {
+        
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(
+                runnable,
+                "nimbus-version-filecontrol-" + poolNumber + "-worker-" + threadNumber.incrementAndGet()
+            );
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
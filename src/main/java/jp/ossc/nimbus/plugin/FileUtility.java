@@ -31,14 +31,24 @@
  */
 package jp.ossc.nimbus.plugin;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class FileUtility extends File implements Serializable {
     
@@ -60,7 +70,7 @@ public class FileUtility extends File implements Serializable {
      */
     public static final int SEARCH_TYPE_ALL = 2;
     
-    private static final String REGEX_ESCAPE_ESCAPE = Character.toString((char) 0x00);
+    static final String REGEX_ESCAPE_ESCAPE = Character.toString((char) 0x00);
     
     /**
      * 指定されたパスのファイルインスタンスを生成する。<p>
@@ -135,18 +145,31 @@ public class FileUtility extends File implements Serializable {
         int searchType
     ){
         final List fileList = new ArrayList();
-        while (dirList.size() > 0) {
-            File dir = (File) dirList.remove(0);
+        // ArrayListの先頭からの削除は要素の移動を伴うため、キューにはArrayDequeを使う
+        final ArrayDeque queue = new ArrayDeque(dirList);
+        dirList.clear();
+        while (!queue.isEmpty()) {
+            File dir = (File) queue.poll();
             File[] list = dir.listFiles();
+            if (list == null) {
+                continue;
+            }
             for (int cnt = 0; cnt < list.length; cnt++) {
                 File tmp = list[cnt];
-                final boolean isDir = tmp.isDirectory();
-                final boolean isFile = tmp.isFile();
+                // ディレクトリとファイルの判定を、1回の属性の読み込みで行う
+                BasicFileAttributes attrs = null;
+                try {
+                    attrs = Files.readAttributes(tmp.toPath(), BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+                final boolean isDir = attrs.isDirectory();
+                final boolean isFile = attrs.isRegularFile();
                 if (!isDir && !isFile) {
                     continue;
                 }
                 if (isDir) {
-                    dirList.add(tmp);
+                    queue.add(tmp);
                 }
                 switch (searchType) {
                 case SEARCH_TYPE_FILE:
@@ -196,6 +219,8 @@ public class FileUtility extends File implements Serializable {
      * パスの正規表現には、通常の正規表現に加えて"**"という指定が可能である。<br>
      * "**"と指定された場合、途中の全てのディレクトリ構造を含む事を示す。<br>
      * 制限事項として、正規表現のエスケープ文字である"\"は、Windows OSのパスセパレータにもなっているため、正規表現として"\"を指定したい場合は、"\\"と指定する事。<br>
+     * パスの正規表現は{@link PathPattern}にコンパイルされ、1回のディレクトリ走査で検索される。<br>
+     * ファイル配列は、浅い階層のファイルから順に、同じ階層内ではディレクトリの読み込み順に並ぶ。<br>
      *
      * @param regexPath パスの正規表現
      * @param searchType 検索種別
@@ -205,177 +230,105 @@ public class FileUtility extends File implements Serializable {
      * @see #SEARCH_TYPE_ALL
      */
     public File[] listAllTreeFiles(String regexPath, int searchType) {
+        return listAllTreeFiles(regexPath, searchType, 1);
+    }
+    
+    /**
+     * このディレクトリ配下で、指定された正規表現に一致するファイル配列を、指定された並列度で取得する。<p>
+     * 並列度が2以上の場合は、サブディレクトリを並列に走査する。並列に走査した場合も、ファイル配列の順序は変わらない。<br>
+     *
+     * @param regexPath パスの正規表現
+     * @param searchType 検索種別
+     * @param parallelism 並列度
+     * @return ファイル配列
+     * @see #listAllTreeFiles(String, int)
+     * @see PathPattern#listFiles(int, int)
+     */
+    public File[] listAllTreeFiles(String regexPath, int searchType, int parallelism) {
+        return listAllTreeFiles(regexPath, searchType, parallelism, null);
+    }
+    
+    /**
+     * このディレクトリ配下で、指定された正規表現に一致するファイル配列を、指定された並列度で取得し、走査したディレクトリの最終更新日時を記録する。<p>
+     *
+     * @param regexPath パスの正規表現
+     * @param searchType 検索種別
+     * @param parallelism 並列度
+     * @param visitedDirs 走査したディレクトリと最終更新日時を記録するマップ。記録しない場合はnull
+     * @return ファイル配列
+     * @see PathPattern#listFiles(int, int, Map)
+     */
+    public File[] listAllTreeFiles(String regexPath, int searchType, int parallelism, Map<File, Long> visitedDirs) {
         regexPath = regexPath.replaceAll("\\\\\\\\", REGEX_ESCAPE_ESCAPE);
-        final List result = filteringRecurciveSerachByRegEx(
+        final List<File> result = new PathPattern(
             getPath().length() == 0
-                 ? new File(regexPath) : new File(this, regexPath),
-            searchType,
-            new ArrayList()
-        );
-        return (File[]) result.toArray(new File[result.size()]);
+                 ? new File(regexPath) : new File(this, regexPath)
+        ).listFiles(searchType, parallelism, visitedDirs);
+        return result.toArray(new File[result.size()]);
     }
-    
-    private List filteringRecurciveSerachByRegEx(
-        File file,
-        int searchType,
-        List result
-    ){
-        if (file.exists()) {
-            switch (searchType) {
-            case SEARCH_TYPE_FILE:
-                if (file.isDirectory()) {
-                    return result;
-                }
-                break;
-            case SEARCH_TYPE_DIR:
-                if (file.isFile()) {
-                    return result;
-                }
-                break;
-            case SEARCH_TYPE_ALL:
-            default:
-            }
-            result.add(file);
-            return result;
+
+    /**
+     * 指定されたファイルをコピーする。<p>
+     * コピー先のディレクトリが存在しない場合は、作成する。<br>
+     *
+     * @param fromFile コピー元のファイル
+     * @param toFile コピー先のファイル
+     * @exception IOException コピーに失敗した場合
+     * @see #dataCopy(File, File, boolean)
+     */
+    public static void dataCopy(File fromFile, File toFile) throws IOException {
+        dataCopy(fromFile, toFile, false);
+    }
+
+    /**
+     * 指定されたファイルをコピーする。<p>
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}を使用し、
+     * OSがサポートする場合はユーザ空間にデータを読み込まずにコピーする。<br>
+     * コピー先のディレクトリが存在しない場合は、作成する。<br>
+     *
+     * @param fromFile コピー元のファイル
+     * @param toFile コピー先のファイル
+     * @param preserveLastModified コピー元の最終更新日時をコピー先に引き継ぐ場合true
+     * @exception IOException コピーに失敗した場合
+     */
+    public static void dataCopy(File fromFile, File toFile, boolean preserveLastModified) throws IOException {
+        if(!toFile.getParentFile().exists()) {
+            toFile.getParentFile().mkdirs();
         }
-        List pathList = new ArrayList();
-        File f = file;
-        String name = null;
-        do {
-            name = f.getName();
-            f = f.getParentFile();
-            pathList.add(0, name.length() == 0 ? "/" : name);
-        } while (f != null);
-        
-        File allDir = null;
-        for (int i = 0, imax = pathList.size(); i < imax; i++) {
-            name = (String) pathList.get(i);
-            f = new File(f, name);
-            if ("**".equals(name)) {
-                if (allDir == null) {
-                    allDir = f.getParentFile();
-                    if (allDir == null) {
-                        allDir = new File(".");
-                    }
-                }
-                if (i == imax - 1) {
-                    name = ".*";
-                } else {
-                    continue;
-                }
-            }
-            if (allDir != null) {
-                FileUtility rootDir
-                     = new FileUtility(allDir.getPath());
-                if (i == imax - 1) {
-                    File[] files = rootDir.listAllTreeFiles(
-                        new FileFilter(
-                            name.replaceAll(REGEX_ESCAPE_ESCAPE, "\\\\")
-                        ),
-                        searchType
-                    );
-                    if (files != null) {
-                        for (int j = 0; j < files.length; j++) {
-                            result.add(files[j]);
-                        }
-                    }
-                } else {
-                    File[] dirs = rootDir.listAllTreeFiles(
-                        new FileFilter(
-                            name.replaceAll(REGEX_ESCAPE_ESCAPE, "\\\\")
-                        ),
-                        FileUtility.SEARCH_TYPE_DIR
-                    );
-                    if (dirs != null) {
-                        final StringBuilder buf = new StringBuilder();
-                        for (int j = i + 1; j < imax; j++) {
-                            buf.append((String) pathList.get(j));
-                            if (j != imax - 1) {
-                                buf.append('/');
-                            }
-                        }
-                        final String path = buf.toString();
-                        for (int j = 0; j < dirs.length; j++) {
-                            dirs[j] = new File(dirs[j], path);
-                            result = filteringRecurciveSerachByRegEx(
-                                dirs[j],
-                                searchType,
-                                result
-                            );
-                        }
-                    }
-                    break;
-                }
-            } else if (!f.exists()) {
-                File rootDir = f.getParentFile();
-                if (rootDir == null) {
-                    rootDir = new File(".");
-                }
-                if (i == imax - 1) {
-                    File[] files = rootDir.listFiles(
-                        new FileFilter(
-                            name.replaceAll(REGEX_ESCAPE_ESCAPE, "\\\\")
-                        )
-                    );
-                    if (files != null) {
-                        for (int j = 0; j < files.length; j++) {
-                            boolean isDir = files[j].isDirectory();
-                            boolean isFile = files[j].isFile();
-                            if (!isDir && !isFile) {
-                                continue;
-                            }
-                            switch (searchType) {
-                            case SEARCH_TYPE_FILE:
-                                if (isDir) {
-                                    continue;
-                                }
-                                break;
-                            case SEARCH_TYPE_DIR:
-                                if (isFile) {
-                                    continue;
-                                }
-                                break;
-                            case SEARCH_TYPE_ALL:
-                            default:
-                            }
-                            result.add(files[j]);
-                        }
-                    }
-                } else {
-                    File[] dirs = rootDir.listFiles(
-                        new FileFilter(
-                            name.replaceAll(REGEX_ESCAPE_ESCAPE, "\\\\")
-                        )
-                    );
-                    if (dirs != null) {
-                        final StringBuilder buf = new StringBuilder();
-                        for (int j = i + 1; j < imax; j++) {
-                            buf.append((String) pathList.get(j));
-                            if (j != imax - 1) {
-                                buf.append('/');
-                            }
-                        }
-                        final String path = buf.toString();
-                        for (int j = 0; j < dirs.length; j++) {
-                            if (!dirs[j].isDirectory()) {
-                                continue;
-                            }
-                            dirs[j] = new File(dirs[j], path);
-                            result = filteringRecurciveSerachByRegEx(
-                                dirs[j],
-                                searchType,
-                                result
-                            );
-                        }
-                    }
-                    break;
+        FileChannel in = FileChannel.open(fromFile.toPath(), StandardOpenOption.READ);
+        try {
+            FileChannel out = FileChannel.open(
+                toFile.toPath(),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING
+            );
+            try {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
                 }
+            } finally {
+                out.close();
             }
+        } finally {
+            in.close();
+        }
+        if (preserveLastModified) {
+            copyLastModified(fromFile, toFile);
         }
-        return result;
     }
 
-    public static void dataCopy(File fromFile, File toFile) throws IOException {
+    /**
+     * 指定されたファイルを、ストリームとバッファを使ってコピーする。<p>
+     * {@link #dataCopy(File, File, boolean)}と比較するための、従来のコピー方式。<br>
+     *
+     * @param fromFile コピー元のファイル
+     * @param toFile コピー先のファイル
+     * @exception IOException コピーに失敗した場合
+     */
+    public static void dataCopyByStream(File fromFile, File toFile) throws IOException {
         if(!toFile.getParentFile().exists()) {
             toFile.getParentFile().mkdirs();
         }
@@ -395,6 +348,147 @@ public class FileUtility extends File implements Serializable {
         }
     }
 
+    /**
+     * 指定されたファイルの最終更新日時を、別のファイルに設定する。<p>
+     *
+     * @param fromFile 最終更新日時の取得元のファイル
+     * @param toFile 最終更新日時を設定するファイル
+     * @exception IOException 最終更新日時の取得または設定に失敗した場合
+     */
+    public static void copyLastModified(File fromFile, File toFile) throws IOException {
+        Files.setLastModifiedTime(toFile.toPath(), Files.getLastModifiedTime(fromFile.toPath()));
+    }
+
+    /**
+     * 指定されたファイルの内容を全て読み込む。<p>
+     *
+     * @param file ファイル
+     * @return ファイルの内容
+     * @exception IOException ファイルの読み込みに失敗した場合
+     */
+    public static byte[] dataRead(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File is too large. file=" + file.getAbsolutePath());
+            }
+            byte[] buf = new byte[(int) length];
+            int offset = 0;
+            int i = 0;
+            while (offset < buf.length && (i = fis.read(buf, offset, buf.length - offset)) != -1) {
+                offset += i;
+            }
+            if (offset < buf.length) {
+                byte[] tmp = new byte[offset];
+                System.arraycopy(buf, 0, tmp, 0, offset);
+                buf = tmp;
+            } else {
+                ByteArrayOutputStream baos = null;
+                byte[] rest = new byte[1024];
+                while ((i = fis.read(rest)) != -1) {
+                    if (baos == null) {
+                        baos = new ByteArrayOutputStream();
+                        baos.write(buf, 0, buf.length);
+                    }
+                    baos.write(rest, 0, i);
+                }
+                if (baos != null) {
+                    buf = baos.toByteArray();
+                }
+            }
+            return buf;
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * 指定されたファイルの内容を、指定された配列を再利用してバッファとして読み込む。<p>
+     * ファイルが配列に収まる場合は、配列に読み込んで、読み込んだサイズをリミットとするバッファを返すため、ファイル毎の配列の生成を行わない。<br>
+     * 収まらない場合は、{@link #dataRead(File)}で新しい配列に読み込む。<br>
+     * メモリマップは、バッファがガベージコレクトされるまでファイルを解放せず、Windowsではファイルの削除や置き換えができなくなるため使用しない。<br>
+     * 返したバッファは配列を共有するため、次に同じ配列で読み込むまでの間だけ使用できる。<br>
+     *
+     * @param file ファイル
+     * @param buf 再利用する配列。nullの場合は、{@link #dataRead(File)}と同じ
+     * @return ファイルの内容
+     * @exception IOException ファイルの読み込みに失敗した場合
+     */
+    public static ByteBuffer dataReadBuffer(File file, byte[] buf) throws IOException {
+        final long length = file.length();
+        // 読み込み中にファイルが伸びた事を検出するため、配列には少なくとも1バイトの余裕を残す
+        if (buf == null || length >= buf.length) {
+            return ByteBuffer.wrap(dataRead(file));
+        }
+        int offset = 0;
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int i = 0;
+            while (offset < buf.length && (i = fis.read(buf, offset, buf.length - offset)) != -1) {
+                offset += i;
+            }
+        } finally {
+            fis.close();
+        }
+        if (offset == buf.length) {
+            return ByteBuffer.wrap(dataRead(file));
+        }
+        return ByteBuffer.wrap(buf, 0, offset);
+    }
+
+    /**
+     * 指定されたデータをファイルに書き込む。<p>
+     * 書き込み先のディレクトリが存在しない場合は、作成する。<br>
+     *
+     * @param data データ
+     * @param toFile 書き込み先のファイル
+     * @exception IOException ファイルの書き込みに失敗した場合
+     */
+    public static void dataWrite(byte[] data, File toFile) throws IOException {
+        if(!toFile.getParentFile().exists()) {
+            toFile.getParentFile().mkdirs();
+        }
+        FileOutputStream fos = new FileOutputStream(toFile);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * 指定されたファイルと同じディレクトリに、書き込み用の一時ファイルを作成する。<p>
+     * ディレクトリが存在しない場合は、作成する。<br>
+     * 一時ファイルへの書き込みが完了したら、{@link #moveAtomically(File, File)}で指定されたファイルに置き換える。<br>
+     *
+     * @param toFile 最終的に書き込むファイル
+     * @return 一時ファイル
+     * @exception IOException 一時ファイルの作成に失敗した場合
+     */
+    public static File createTempFile(File toFile) throws IOException {
+        if(!toFile.getParentFile().exists()) {
+            toFile.getParentFile().mkdirs();
+        }
+        return File.createTempFile("." + toFile.getName() + ".", ".tmp", toFile.getParentFile());
+    }
+
+    /**
+     * 指定された一時ファイルを、指定されたファイルに置き換える。<p>
+     * ファイルシステムがサポートする場合はアトミックに置き換え、途中まで書き込まれたファイルが見えないようにする。<br>
+     *
+     * @param tmpFile 一時ファイル
+     * @param toFile 置き換えるファイル
+     * @exception IOException 置き換えに失敗した場合
+     */
+    public static void moveAtomically(File tmpFile, File toFile) throws IOException {
+        try {
+            Files.move(tmpFile.toPath(), toFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), toFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     /**
      * 指定されたファイル以下を再帰的に削除する。<p>
      *
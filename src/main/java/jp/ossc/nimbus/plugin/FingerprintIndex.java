@@ -0,0 +1,580 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * インクリメンタルビルド用のフィンガープリントインデックス。<p>
+ * 入力ファイル毎に、パス、サイズ、最終更新日時、内容のハッシュ値、対象バージョン、出力ファイルを記録し、ファイルに永続化する。<br>
+ * 1つの入力ファイルから複数の出力ファイルを生成する場合は、全ての出力ファイルを記録する。<br>
+ * プラグインの設定から算出した設定ハッシュ値も合わせて記録し、設定が変更された場合は、記録を全て破棄してフルビルドとする。<br>
+ * 出力が対象バージョンと比較するバージョンに依存する場合は、比較するバージョンも記録し、
+ * 対象バージョンが変更されても、比較するバージョン全てとの大小関係が変わらない入力ファイルは、変更なしと判定する。<br>
+ */
+public class FingerprintIndex {
+    
+    private static final String CONFIG_HASH_KEY = "#config.hash";
+    
+    private static final String HASH_ALGORITHM = "MD5";
+    
+    private static final char SEPARATOR = ',';
+    
+    /**
+     * 出力が依存する比較バージョンが不明である事を示す値。<p>
+     * {@link #update(File, Fingerprint, List, Set)}で指定する比較バージョンのセットに含めると、比較バージョンを記録しない。<br>
+     */
+    public static final String UNKNOWN_REFERENCES = "*";
+    
+    private static final String UNKNOWN_HASH = "";
+    
+    private final File indexFile;
+    
+    private final String configHash;
+    
+    private final String version;
+    
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    
+    private final Map<String, Entry> currentEntries = new ConcurrentHashMap<String, Entry>();
+    
+    private ScanCache scanCache;
+    
+    private final AtomicInteger versionSkipCount = new AtomicInteger();
+    
+    /**
+     * インデックスのインスタンスを生成する。<p>
+     *
+     * @param indexFile インデックスファイル
+     * @param configHash 設定ハッシュ値
+     * @param version 対象バージョン。複数の場合は{@link #join(String[])}で連結した文字列
+     */
+    public FingerprintIndex(File indexFile, String configHash, String version) {
+        this.indexFile = indexFile;
+        this.configHash = configHash;
+        this.version = version;
+    }
+    
+    /**
+     * 入力ファイルのハッシュ値の算出に使用する、ビルドセッションで共有するキャッシュを設定する。<p>
+     *
+     * @param cache キャッシュ。使用しない場合はnull
+     */
+    public void setScanCache(ScanCache cache) {
+        scanCache = cache;
+    }
+    
+    /**
+     * インデックスファイルを読み込む。<p>
+     * インデックスファイルが存在しない場合、または設定ハッシュ値が異なる場合は、記録を読み込まない。<br>
+     *
+     * @return 記録を読み込んだ場合true、フルビルドが必要な場合false
+     * @exception IOException インデックスファイルの読み込みに失敗した場合
+     */
+    public boolean load() throws IOException {
+        entries.clear();
+        if (!indexFile.exists()) {
+            return false;
+        }
+        final Properties prop = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(indexFile);
+            prop.load(is);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+        if (!configHash.equals(prop.getProperty(CONFIG_HASH_KEY))) {
+            return false;
+        }
+        final Iterator<Map.Entry<Object, Object>> itr = prop.entrySet().iterator();
+        while (itr.hasNext()) {
+            final Map.Entry<Object, Object> propEntry = itr.next();
+            final String path = (String) propEntry.getKey();
+            if (CONFIG_HASH_KEY.equals(path)) {
+                continue;
+            }
+            final Entry entry = Entry.parse((String) propEntry.getValue());
+            if (entry != null) {
+                entries.put(path, entry);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 指定された入力ファイルが前回の記録から変更されていないか判定する。<p>
+     * サイズと最終更新日時が一致する場合は、内容を読まずに変更なしと判定する。<br>
+     * 最終更新日時のみが異なる場合は、内容のハッシュ値を比較する。<br>
+     * 前回出力したファイルが存在しない場合は、変更ありと判定する。<br>
+     * 対象バージョンが前回と異なる場合は、前回記録した比較バージョン全てについて、前回と今回の対象バージョンとの大小関係が同じ場合に限り、変更なしと判定する。<br>
+     * 変更なしと判定した入力ファイルは、次回のインデックスに引き継がれる。<br>
+     *
+     * @param source 入力ファイル
+     * @return 変更されていない場合true
+     * @exception IOException 入力ファイルの読み込みに失敗した場合
+     */
+    public boolean isUpToDate(File source) throws IOException {
+        final String path = source.getAbsolutePath();
+        final Entry entry = entries.get(path);
+        if (entry == null) {
+            return false;
+        }
+        final boolean isVersionChanged = !version.equals(entry.version);
+        if (isVersionChanged && !isUnaffected(entry)) {
+            return false;
+        }
+        for (String output : entry.outputs) {
+            if (!new File(output).exists()) {
+                return false;
+            }
+        }
+        final long size = source.length();
+        if (entry.size != size) {
+            return false;
+        }
+        final long lastModified = source.lastModified();
+        if (entry.lastModified == lastModified && !isVersionChanged) {
+            currentEntries.put(path, entry);
+            return true;
+        }
+        final String hash;
+        if (entry.lastModified == lastModified) {
+            hash = entry.hash;
+        } else {
+            hash = scanCache == null ? hash(source) : scanCache.hash(source);
+            if (!hash.equals(entry.hash)) {
+                return false;
+            }
+        }
+        currentEntries.put(path, new Entry(size, lastModified, hash, version, entry.references, entry.outputs));
+        if (isVersionChanged) {
+            versionSkipCount.incrementAndGet();
+        }
+        return true;
+    }
+    
+    /**
+     * 前回の対象バージョンと今回の対象バージョンが、記録した比較バージョン全てと同じ大小関係にあるか判定する。<p>
+     *
+     * @param entry 前回の記録
+     * @return 出力が変わらない場合true
+     */
+    private boolean isUnaffected(Entry entry) {
+        if (entry.references == null) {
+            return false;
+        }
+        final String[] versions = version.split("/");
+        final String[] previousVersions = entry.version.split("/");
+        if (versions.length != previousVersions.length) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < versions.length; i++) {
+                final int current = Integer.parseInt(versions[i]);
+                final int previous = Integer.parseInt(previousVersions[i]);
+                for (String reference : entry.references) {
+                    final int checkVersion = Integer.parseInt(reference);
+                    if (Integer.signum(Integer.compare(current, checkVersion)) != Integer.signum(Integer.compare(previous, checkVersion))) {
+                        return false;
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * 対象バージョンが前回と異なるが、比較バージョンとの大小関係が変わらないため変更なしと判定した入力ファイルの数を取得する。<p>
+     *
+     * @return 入力ファイルの数
+     */
+    public int getVersionSkipCount() {
+        return versionSkipCount.get();
+    }
+    
+    /**
+     * {@link #isUpToDate(File)}で変更なしと判定された入力ファイルについて、前回出力したファイルを取得する。<p>
+     *
+     * @param source 入力ファイル
+     * @return 出力ファイルのリスト。記録がない場合は空のリスト
+     */
+    public List<File> getOutputs(File source) {
+        final List<File> result = new ArrayList<File>();
+        final Entry entry = currentEntries.get(source.getAbsolutePath());
+        if (entry != null) {
+            for (String output : entry.outputs) {
+                result.add(new File(output));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 指定された入力ファイルを処理した結果を、出力が依存する比較バージョンと合わせて記録する。<p>
+     * サイズ、最終更新日時、ハッシュ値は、処理した時点のものを記録するため、処理を始める前に生成した{@link Fingerprint}で指定する。<br>
+     * 比較バージョンを記録した入力ファイルは、次回の実行で対象バージョンが変更されても、
+     * 比較バージョンとの大小関係が変わらなければ、変更なしと判定される。<br>
+     *
+     * @param source 入力ファイル
+     * @param fingerprint 処理した入力ファイルのフィンガープリント
+     * @param outputs 出力ファイルのリスト。出力しなかった場合は空のリスト
+     * @param references 出力が依存する比較バージョンのセット。不明な場合はnull、または{@link #UNKNOWN_REFERENCES}を含むセット
+     */
+    public void update(File source, Fingerprint fingerprint, List<File> outputs, Set<String> references) {
+        final String[] outputPaths = new String[outputs.size()];
+        for (int i = 0; i < outputPaths.length; i++) {
+            outputPaths[i] = outputs.get(i).getAbsolutePath();
+        }
+        currentEntries.put(
+            source.getAbsolutePath(),
+            new Entry(
+                fingerprint.size,
+                fingerprint.lastModified,
+                fingerprint.hash == null ? UNKNOWN_HASH : fingerprint.hash,
+                version,
+                references == null || references.contains(UNKNOWN_REFERENCES) ? null : references.toArray(new String[references.size()]),
+                outputPaths
+            )
+        );
+    }
+    
+    /**
+     * 削除された入力ファイルの記録を削除する。<p>
+     *
+     * @param source 入力ファイル
+     * @return 記録を削除した場合true
+     */
+    public boolean remove(File source) {
+        return currentEntries.remove(source.getAbsolutePath()) != null;
+    }
+    
+    /**
+     * 削除されたディレクトリ配下の入力ファイルの記録を削除する。<p>
+     *
+     * @param dir ディレクトリ
+     * @return 記録を削除した場合true
+     */
+    public boolean removeUnder(File dir) {
+        final String prefix = dir.getAbsolutePath() + File.separator;
+        boolean isRemoved = false;
+        final Iterator<String> paths = currentEntries.keySet().iterator();
+        while (paths.hasNext()) {
+            if (paths.next().startsWith(prefix)) {
+                paths.remove();
+                isRemoved = true;
+            }
+        }
+        return isRemoved;
+    }
+    
+    /**
+     * 今回の実行で変更なしと判定された入力ファイルと、処理した入力ファイルの記録をインデックスファイルに書き込む。<p>
+     *
+     * @exception IOException インデックスファイルの書き込みに失敗した場合
+     */
+    public void store() throws IOException {
+        final Properties prop = new Properties();
+        prop.setProperty(CONFIG_HASH_KEY, configHash);
+        final Iterator<Map.Entry<String, Entry>> itr = currentEntries.entrySet().iterator();
+        while (itr.hasNext()) {
+            final Map.Entry<String, Entry> entry = itr.next();
+            prop.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        if (!indexFile.getParentFile().exists()) {
+            indexFile.getParentFile().mkdirs();
+        }
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(indexFile);
+            prop.store(os, null);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+    
+    /**
+     * 指定されたファイルの内容のハッシュ値を取得する。<p>
+     *
+     * @param file ファイル
+     * @return ハッシュ値の16進数文字列
+     * @exception IOException ファイルの読み込みに失敗した場合
+     */
+    public static String hash(File file) throws IOException {
+        final MessageDigest digest = createDigest();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            byte[] buf = new byte[8192];
+            int i = 0;
+            while ((i = is.read(buf)) != -1) {
+                digest.update(buf, 0, i);
+            }
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+        return toHexString(digest.digest());
+    }
+    
+    /**
+     * 指定されたデータのハッシュ値を取得する。<p>
+     *
+     * @param data データ
+     * @return ハッシュ値の16進数文字列
+     */
+    public static String hash(byte[] data) {
+        final MessageDigest digest = createDigest();
+        digest.update(data);
+        return toHexString(digest.digest());
+    }
+    
+    /**
+     * 指定されたバッファの残りのデータのハッシュ値を取得する。<p>
+     * バッファの位置は変更しない。<br>
+     *
+     * @param data データ
+     * @return ハッシュ値の16進数文字列
+     */
+    public static String hash(ByteBuffer data) {
+        final MessageDigest digest = createDigest();
+        digest.update(data.duplicate());
+        return toHexString(digest.digest());
+    }
+    
+    /**
+     * 指定された設定値から設定ハッシュ値を算出する。<p>
+     *
+     * @param values 設定値の配列。要素にnullを含んでも良い
+     * @return ハッシュ値の16進数文字列
+     */
+    public static String hash(Object... values) {
+        final MessageDigest digest = createDigest();
+        for (Object value : values) {
+            final String str;
+            if (value == null) {
+                str = "\0";
+            } else if (value instanceof Object[]) {
+                final StringBuilder sb = new StringBuilder();
+                for (Object element : (Object[]) value) {
+                    sb.append(element).append('\n');
+                }
+                str = sb.toString();
+            } else {
+                str = value.toString();
+            }
+            try {
+                digest.update(str.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            digest.update((byte) 0xff);
+        }
+        return toHexString(digest.digest());
+    }
+    
+    /**
+     * 複数の対象バージョンを、インデックスに記録する1つの文字列に連結する。<p>
+     *
+     * @param versions 対象バージョンの配列
+     * @return 連結した文字列
+     */
+    public static String join(String[] versions) {
+        final StringBuilder sb = new StringBuilder();
+        for (String version : versions) {
+            if (sb.length() != 0) {
+                sb.append('/');
+            }
+            sb.append(version);
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * ハッシュ値の算出に使用するダイジェストを生成する。<p>
+     *
+     * @return ダイジェスト
+     */
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * ダイジェストの値を、ハッシュ値の16進数文字列に変換する。<p>
+     *
+     * @param bytes ダイジェストの値
+     * @return ハッシュ値の16進数文字列
+     */
+    static String toHexString(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0x0f, 16));
+            sb.append(Character.forDigit(b & 0x0f, 16));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 処理した入力ファイルの、サイズ、最終更新日時、内容のハッシュ値。<p>
+     * サイズと最終更新日時は、入力ファイルを読み込む前に取得し、ハッシュ値は、実際に処理した内容から算出して設定する。
+     * これにより、処理中に入力ファイルが変更された場合は、次回の実行で最終更新日時またはハッシュ値が一致せず、再処理される。<br>
+     * 処理した内容からハッシュ値を算出しなかった場合は、ハッシュ値を記録せず、次回の実行で最終更新日時が異なれば再処理される。<br>
+     */
+    public static class Fingerprint {
+        
+        final long size;
+        
+        final long lastModified;
+        
+        String hash;
+        
+        /**
+         * 入力ファイルを読み込む前に、サイズと最終更新日時を取得してインスタンスを生成する。<p>
+         *
+         * @param source 入力ファイル
+         */
+        public Fingerprint(File source) {
+            lastModified = source.lastModified();
+            size = source.length();
+        }
+        
+        /**
+         * 処理した内容のハッシュ値を設定する。<p>
+         *
+         * @param hash ハッシュ値の16進数文字列
+         */
+        public void setHash(String hash) {
+            this.hash = hash;
+        }
+    }
+    
+    private static class Entry {
+        
+        final long size;
+        
+        final long lastModified;
+        
+        final String hash;
+        
+        final String version;
+        
+        final String[] references;
+        
+        final String[] outputs;
+        
+        Entry(long size, long lastModified, String hash, String version, String[] references, String[] outputs) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.version = version;
+            this.references = references;
+            this.outputs = outputs;
+        }
+        
+        static Entry parse(String value) {
+            final String[] values = value.split(String.valueOf(SEPARATOR), 6);
+            if (values.length != 6) {
+                return null;
+            }
+            try {
+                return new Entry(
+                    Long.parseLong(values[0]),
+                    Long.parseLong(values[1]),
+                    values[2],
+                    values[3],
+                    UNKNOWN_REFERENCES.equals(values[4]) ? null : (values[4].length() == 0 ? new String[0] : values[4].split("/")),
+                    values[5].length() == 0 ? new String[0] : values[5].split(File.pathSeparator)
+                );
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(size).append(SEPARATOR);
+            sb.append(lastModified).append(SEPARATOR);
+            sb.append(hash).append(SEPARATOR);
+            sb.append(version).append(SEPARATOR);
+            if (references == null) {
+                sb.append(UNKNOWN_REFERENCES);
+            } else {
+                sb.append(join(references));
+            }
+            sb.append(SEPARATOR);
+            for (int i = 0; i < outputs.length; i++) {
+                if (i != 0) {
+                    sb.append(File.pathSeparatorChar);
+                }
+                sb.append(outputs[i]);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * ゴールの実行結果を集計するレポート。<p>
+ * フェーズ毎の処理時間、ファイル数とバイト数、処理時間の長いファイルを集計し、ログへのサマリの出力と、JSON形式のレポートファイルの出力を行う。<br>
+ * 読み込み、評価、書き込みの各フェーズの処理時間は、ファイル毎の処理時間を全スレッドで合計した値である。<br>
+ * 複数スレッドから並行に使用する事ができる。<br>
+ */
+public class GoalReport {
+    
+    /**
+     * 設定値の検証フェーズ。<p>
+     */
+    public static final int PHASE_VALIDATION = 0;
+    
+    /**
+     * 対象ファイルの検索フェーズ。<p>
+     */
+    public static final int PHASE_TRAVERSAL = 1;
+    
+    /**
+     * 対象ファイルの読み込みフェーズ。<p>
+     * インクリメンタルビルドの更新判定を含む。<br>
+     */
+    public static final int PHASE_READ = 2;
+    
+    /**
+     * バージョン条件の評価、およびマーカーの置換フェーズ。<p>
+     */
+    public static final int PHASE_EVALUATION = 3;
+    
+    /**
+     * 出力ファイルの書き込みフェーズ。<p>
+     */
+    public static final int PHASE_WRITE = 4;
+    
+    private static final String[] PHASE_NAMES = {"validation", "traversal", "read", "evaluation", "write"};
+    
+    private static final Comparator<FileTime> FILE_TIME_COMPARATOR = new Comparator<FileTime>() {
+        public int compare(FileTime o1, FileTime o2) {
+            return o1.time < o2.time ? -1 : (o1.time == o2.time ? 0 : 1);
+        }
+    };
+    
+    private final String goal;
+    
+    private final int slowestCount;
+    
+    private final long startTime = System.nanoTime();
+    
+    private long totalTime;
+    
+    private final AtomicLongArray phaseTimes = new AtomicLongArray(PHASE_NAMES.length);
+    
+    private final AtomicLong scannedCount = new AtomicLong();
+    
+    private final AtomicLong matchedCount = new AtomicLong();
+    
+    private final AtomicLong skippedCount = new AtomicLong();
+    
+    private final AtomicLong bytesIn = new AtomicLong();
+    
+    private long writtenCount;
+    
+    private long unchangedCount;
+    
+    private long bytesOut;
+    
+    private final PriorityQueue<FileTime> slowestFiles;
+    
+    /**
+     * レポートのインスタンスを生成する。<p>
+     * インスタンスの生成時点から、ゴール全体の処理時間の計測を開始する。<br>
+     *
+     * @param goal ゴール名
+     * @param slowestCount 集計する処理時間の長いファイルの数
+     */
+    public GoalReport(String goal, int slowestCount) {
+        this.goal = goal;
+        this.slowestCount = slowestCount;
+        slowestFiles = new PriorityQueue<FileTime>(Math.max(1, slowestCount + 1), FILE_TIME_COMPARATOR);
+    }
+    
+    /**
+     * 指定されたフェーズの処理時間を加算する。<p>
+     *
+     * @param phase フェーズ
+     * @param time 処理時間[ns]
+     */
+    public void addPhaseTime(int phase, long time) {
+        phaseTimes.addAndGet(phase, time);
+    }
+    
+    /**
+     * 指定された開始時刻から現在までの時間を、指定されたフェーズの処理時間に加算する。<p>
+     *
+     * @param phase フェーズ
+     * @param start 開始時刻[ns]。{@link System#nanoTime()}の値
+     * @return 現在時刻[ns]
+     */
+    public long addPhaseTimeFrom(int phase, long start) {
+        final long now = System.nanoTime();
+        phaseTimes.addAndGet(phase, now - start);
+        return now;
+    }
+    
+    /**
+     * 検索したファイル数を加算する。<p>
+     *
+     * @param count ファイル数
+     */
+    public void addScanned(int count) {
+        scannedCount.addAndGet(count);
+    }
+    
+    /**
+     * 出力対象となったファイルを1件加算する。<p>
+     */
+    public void addMatched() {
+        matchedCount.incrementAndGet();
+    }
+    
+    /**
+     * 更新されていないためにスキップしたファイルを1件加算する。<p>
+     */
+    public void addSkipped() {
+        skippedCount.incrementAndGet();
+    }
+    
+    /**
+     * 読み込んだバイト数を加算する。<p>
+     *
+     * @param bytes バイト数
+     */
+    public void addBytesIn(long bytes) {
+        bytesIn.addAndGet(bytes);
+    }
+    
+    /**
+     * ファイル毎の処理時間を記録する。<p>
+     *
+     * @param file 対象ファイル
+     * @param time 処理時間[ns]
+     */
+    public void addFileTime(File file, long time) {
+        if (slowestCount <= 0) {
+            return;
+        }
+        synchronized (slowestFiles) {
+            if (slowestFiles.size() < slowestCount) {
+                slowestFiles.add(new FileTime(file, time));
+            } else if (slowestFiles.peek().time < time) {
+                slowestFiles.poll();
+                slowestFiles.add(new FileTime(file, time));
+            }
+        }
+    }
+    
+    /**
+     * 集計を終了する。<p>
+     *
+     * @param outputWriter 出力ファイルを書き込んだライター
+     */
+    public void finish(OutputWriter outputWriter) {
+        totalTime = System.nanoTime() - startTime;
+        writtenCount = outputWriter.getWrittenCount();
+        unchangedCount = outputWriter.getUnchangedCount();
+        bytesOut = outputWriter.getWrittenBytes();
+    }
+    
+    /**
+     * サマリをログに出力する。<p>
+     *
+     * @param log ログ
+     */
+    public void log(Log log) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(goal).append(" report time=").append(toMillis(totalTime)).append("ms");
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            buf.append(' ').append(PHASE_NAMES[i]).append('=').append(toMillis(phaseTimes.get(i))).append("ms");
+        }
+        log.info(buf.toString());
+        log.info(goal + " report files scanned=" + scannedCount.get() + " matched=" + matchedCount.get()
+            + " written=" + writtenCount + " unchanged=" + unchangedCount + " skipped=" + skippedCount.get()
+            + " bytesIn=" + bytesIn.get() + " bytesOut=" + bytesOut);
+        for (FileTime fileTime : getSlowestFiles()) {
+            log.info(goal + " report slowest file=" + fileTime.file.getAbsolutePath() + " time=" + toMillis(fileTime.time) + "ms");
+        }
+    }
+    
+    /**
+     * JSON形式のレポートファイルを出力する。<p>
+     *
+     * @param reportFile レポートファイル
+     * @exception IOException 書き込みに失敗した場合
+     */
+    public void store(File reportFile) throws IOException {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("{\n");
+        buf.append("  \"goal\": ").append(quote(goal)).append(",\n");
+        buf.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        buf.append("  \"timeMillis\": ").append(toMillis(totalTime)).append(",\n");
+        buf.append("  \"phases\": {");
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            buf.append(i == 0 ? "\n" : ",\n");
+            buf.append("    ").append(quote(PHASE_NAMES[i])).append(": ").append(toMillis(phaseTimes.get(i)));
+        }
+        buf.append("\n  },\n");
+        buf.append("  \"counts\": {\n");
+        buf.append("    \"scanned\": ").append(scannedCount.get()).append(",\n");
+        buf.append("    \"matched\": ").append(matchedCount.get()).append(",\n");
+        buf.append("    \"written\": ").append(writtenCount).append(",\n");
+        buf.append("    \"unchanged\": ").append(unchangedCount).append(",\n");
+        buf.append("    \"skipped\": ").append(skippedCount.get()).append(",\n");
+        buf.append("    \"bytesIn\": ").append(bytesIn.get()).append(",\n");
+        buf.append("    \"bytesOut\": ").append(bytesOut).append("\n");
+        buf.append("  },\n");
+        buf.append("  \"slowestFiles\": [");
+        final List<FileTime> slowest = getSlowestFiles();
+        for (int i = 0; i < slowest.size(); i++) {
+            final FileTime fileTime = slowest.get(i);
+            buf.append(i == 0 ? "\n" : ",\n");
+            buf.append("    {\"file\": ").append(quote(fileTime.file.getAbsolutePath()))
+                .append(", \"timeMillis\": ").append(toMillis(fileTime.time)).append('}');
+        }
+        buf.append(slowest.isEmpty() ? "]\n" : "\n  ]\n");
+        buf.append("}\n");
+        FileUtility.dataWrite(buf.toString().getBytes("UTF-8"), reportFile);
+    }
+    
+    private List<FileTime> getSlowestFiles() {
+        List<FileTime> result = null;
+        synchronized (slowestFiles) {
+            result = new ArrayList<FileTime>(slowestFiles);
+        }
+        Collections.sort(result, Collections.reverseOrder(FILE_TIME_COMPARATOR));
+        return result;
+    }
+    
+    private static String toMillis(long time) {
+        return String.valueOf(time / 1000000L) + '.' + String.valueOf(time / 100000L % 10L);
+    }
+    
+    private static String quote(String value) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                buf.append("\\\"");
+                break;
+            case '\\':
+                buf.append("\\\\");
+                break;
+            case '\n':
+                buf.append("\\n");
+                break;
+            case '\r':
+                buf.append("\\r");
+                break;
+            case '\t':
+                buf.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    buf.append(String.format("\\u%04x", (int) c));
+                } else {
+                    buf.append(c);
+                }
+            }
+        }
+        buf.append('"');
+        return buf.toString();
+    }
+    
+    private static class FileTime {
+        
+        final File file;
+        
+        final long time;
+        
+        FileTime(File file, long time) {
+            this.file = file;
+            this.time = time;
+        }
+    }
+}
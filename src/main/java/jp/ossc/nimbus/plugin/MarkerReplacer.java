@@ -0,0 +1,302 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * バージョン差分マーカーの置換エンジン。<p>
+ * "@START&lt;=JAVA8@"や"@END&gt;JAVA11@"のようなマーカーを、対象バージョンと比較バージョンの大小関係に応じて、
+ * 空文字またはコメント開始/終了文字列に置換する。<br>
+ * デフォルトでは、全ての比較バージョンのマーカーを1つの正規表現にまとめてインスタンス生成時にコンパイルし、1行を1回の走査で置換する。<br>
+ * 比較用に、マーカー毎にString#replaceAll(String, String)を呼び出す従来の置換方式も選択できる。<br>
+ */
+public class MarkerReplacer implements Serializable {
+    
+    private static final long serialVersionUID = -2183560245541387816L;
+    
+    /**
+     * 置換方式：全てのマーカーを1回の走査で置換する。<p>
+     * デフォルト値。<br>
+     */
+    public static final String MODE_SINGLE_PASS = "singlePass";
+    
+    /**
+     * 置換方式：マーカー毎にString#replaceAll(String, String)で置換する従来の方式。<p>
+     */
+    public static final String MODE_LEGACY = "legacy";
+    
+    public static final String REPLACE_EMPTY_STR = "";
+    
+    public static final String REPLACE_START_STR = "/* **Version Difference Comment Start**";
+    
+    public static final String REPLACE_END_STR = "**Version Difference Comment End** */";
+    
+    private static final String[] MARKER_TYPES = {"START", "END"};
+    
+    private static final String[] OPERATORS = {"=", ">", ">=", "<", "<="};
+    
+    private final String version;
+    
+    private final String[] checkVersions;
+    
+    private final String checkTargetPrefix;
+    
+    private final boolean isLegacy;
+    
+    private Pattern pattern;
+    
+    private int versionGroup;
+    
+    private Map<String, String> replacements;
+    
+    /**
+     * 1回の走査で置換する置換エンジンのインスタンスを生成する。<p>
+     *
+     * @param version 対象バージョン
+     * @param checkVersions 比較バージョンの配列
+     * @param checkTargetPrefix マーカーのバージョン接頭辞
+     */
+    public MarkerReplacer(String version, String[] checkVersions, String checkTargetPrefix) {
+        this(version, checkVersions, checkTargetPrefix, MODE_SINGLE_PASS);
+    }
+    
+    /**
+     * 指定された置換方式の置換エンジンのインスタンスを生成する。<p>
+     *
+     * @param version 対象バージョン
+     * @param checkVersions 比較バージョンの配列
+     * @param checkTargetPrefix マーカーのバージョン接頭辞
+     * @param mode 置換方式
+     * @exception IllegalArgumentException 置換方式が不正な場合、またはバージョンが数値でない場合
+     * @see #MODE_SINGLE_PASS
+     * @see #MODE_LEGACY
+     */
+    public MarkerReplacer(String version, String[] checkVersions, String checkTargetPrefix, String mode) {
+        if (mode == null || MODE_SINGLE_PASS.equals(mode)) {
+            isLegacy = false;
+        } else if (MODE_LEGACY.equals(mode)) {
+            isLegacy = true;
+        } else {
+            throw new IllegalArgumentException("replace mode is invalid. mode=" + mode);
+        }
+        this.version = version;
+        this.checkVersions = checkVersions;
+        this.checkTargetPrefix = checkTargetPrefix;
+        if (!isLegacy) {
+            compile();
+        }
+    }
+    
+    private void compile() {
+        final int intVersion = Integer.parseInt(version);
+        replacements = new HashMap<String, String>();
+        final StringBuilder versionRegex = new StringBuilder();
+        for (String checkVersion : checkVersions) {
+            final int compareTo = intVersion - Integer.parseInt(checkVersion);
+            for (String type : MARKER_TYPES) {
+                final String comment = "START".equals(type) ? REPLACE_START_STR : REPLACE_END_STR;
+                for (String operator : OPERATORS) {
+                    final String key = type + operator + checkVersion;
+                    if (replacements.containsKey(key)) {
+                        continue;
+                    }
+                    replacements.put(key, isActive(operator, compareTo) ? REPLACE_EMPTY_STR : comment);
+                }
+            }
+            if (versionRegex.length() != 0) {
+                versionRegex.append('|');
+            }
+            versionRegex.append(Pattern.quote(checkVersion));
+        }
+        // 接頭辞は従来の置換方式と同じく正規表現として扱うため、接頭辞内のグループ数を考慮してバージョンのグループ番号を決める
+        versionGroup = 3 + Pattern.compile(checkTargetPrefix).matcher("").groupCount();
+        pattern = Pattern.compile(
+            "@(START|END)(<=|>=|=|<|>)(?:" + checkTargetPrefix + ")(" + versionRegex + ")@"
+        );
+    }
+    
+    private static boolean isActive(String operator, int compareTo) {
+        if ("=".equals(operator)) {
+            return compareTo == 0;
+        } else if (">".equals(operator)) {
+            return compareTo > 0;
+        } else if (">=".equals(operator)) {
+            return compareTo >= 0;
+        } else if ("<".equals(operator)) {
+            return compareTo < 0;
+        } else {
+            return compareTo <= 0;
+        }
+    }
+    
+    /**
+     * 置換方式が従来の方式かどうか判定する。<p>
+     *
+     * @return 従来の方式の場合true
+     */
+    public boolean isLegacy() {
+        return isLegacy;
+    }
+    
+    /**
+     * 指定されたマーカーの置換文字列を取得する。<p>
+     * 1回の走査で置換する方式の場合のみ使用できる。<br>
+     *
+     * @param key マーカーの種別、演算子、比較バージョンを連結した文字列。例えば"START&lt;=8"
+     * @return 置換文字列
+     * @exception IllegalStateException 従来の置換方式の場合
+     */
+    public String getReplacement(String key) throws IllegalStateException {
+        if (isLegacy) {
+            throw new IllegalStateException("replace mode is legacy.");
+        }
+        return replacements.get(key);
+    }
+    
+    /**
+     * 指定された行のマーカーを置換する。<p>
+     *
+     * @param line 行
+     * @return 置換後の行
+     */
+    public String replace(String line) {
+        return replace(line, null);
+    }
+    
+    /**
+     * 指定された行のマーカーを置換し、置換したマーカーの比較バージョンを記録する。<p>
+     * 置換結果は、対象バージョンと、記録した比較バージョンそれぞれとの大小関係だけで決まる。<br>
+     * 従来の置換方式の場合は、マーカーを含む可能性のある行で、全ての比較バージョンを記録する。<br>
+     *
+     * @param line 行
+     * @param references 置換したマーカーの比較バージョンを記録するセット。記録しない場合はnull
+     * @return 置換後の行
+     */
+    public String replace(String line, Set<String> references) {
+        if (isLegacy) {
+            if (references != null && line.indexOf('@') != -1) {
+                references.addAll(Arrays.asList(checkVersions));
+            }
+            return replaceLegacy(line);
+        }
+        if (line.indexOf('@') == -1) {
+            return line;
+        }
+        final Matcher matcher = pattern.matcher(line);
+        if (!matcher.find()) {
+            return line;
+        }
+        final StringBuilder sb = new StringBuilder(line.length() + REPLACE_START_STR.length());
+        int last = 0;
+        do {
+            sb.append(line, last, matcher.start());
+            sb.append(replacements.get(matcher.group(1) + matcher.group(2) + matcher.group(versionGroup)));
+            if (references != null) {
+                references.add(matcher.group(versionGroup));
+            }
+            last = matcher.end();
+        } while (matcher.find());
+        sb.append(line, last, line.length());
+        return sb.toString();
+    }
+    
+    /**
+     * 指定された行に含まれるマーカーを、置換せずに検索する。<p>
+     * 1回の走査で置換する方式の場合のみ使用できる。<br>
+     *
+     * @param line 行
+     * @param markers 見つかったマーカーの種別、演算子、比較バージョンを連結した文字列を追加するリスト。例えば"START&lt;=8"
+     * @exception IllegalStateException 従来の置換方式の場合
+     * @see #getReplacement(String)
+     */
+    public void findMarkers(String line, List<String> markers) throws IllegalStateException {
+        if (isLegacy) {
+            throw new IllegalStateException("replace mode is legacy.");
+        }
+        if (line.indexOf('@') == -1) {
+            return;
+        }
+        final Matcher matcher = pattern.matcher(line);
+        while (matcher.find()) {
+            markers.add(matcher.group(1) + matcher.group(2) + matcher.group(versionGroup));
+        }
+    }
+    
+    private String replaceLegacy(String line) {
+        for (String checkVersion : checkVersions) {
+            int compareTo = Integer.parseInt(version) - Integer.parseInt(checkVersion);
+            if (compareTo == 0) {
+                line = line.replaceAll("@START=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@END=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@START>" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
+                line = line.replaceAll("@END>" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
+                line = line.replaceAll("@START>=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@END>=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@START<" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
+                line = line.replaceAll("@END<" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
+                line = line.replaceAll("@START<=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@END<=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+            } else if (compareTo > 0) {
+                line = line.replaceAll("@START=" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
+                line = line.replaceAll("@END=" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
+                line = line.replaceAll("@START>" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@END>" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@START>=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@END>=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@START<" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
+                line = line.replaceAll("@END<" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
+                line = line.replaceAll("@START<=" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
+                line = line.replaceAll("@END<=" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
+            } else {
+                line = line.replaceAll("@START=" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
+                line = line.replaceAll("@END=" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
+                line = line.replaceAll("@START>" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
+                line = line.replaceAll("@END>" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
+                line = line.replaceAll("@START>=" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
+                line = line.replaceAll("@END>=" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
+                line = line.replaceAll("@START<" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@END<" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@START<=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+                line = line.replaceAll("@END<=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
+            }
+        }
+        return line;
+    }
+}
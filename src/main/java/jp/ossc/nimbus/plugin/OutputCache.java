@@ -0,0 +1,391 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 入力ファイルの内容と設定値をキーとして、出力ファイルの内容を保持するキャッシュ。<p>
+ * ブランチの切り替えやクリーンビルドの後に、以前に生成したことのある出力ファイルを、再評価せずにキャッシュから復元するために使用する。<br>
+ * キーは、入力ファイルの内容のハッシュ値と、対象バージョンなど出力内容に影響する設定値のハッシュ値から算出し、
+ * キャッシュディレクトリ配下に、キーの先頭2文字のサブディレクトリを作ってキーをファイル名としたエントリを格納する。
+ * 出力ファイルを生成しない場合は、空のエントリに"{@value #NONE_SUFFIX}"を付けたファイル名で格納する。<br>
+ * エントリは一時ファイルに書き込んでからアトミックに移動し、同じキーのエントリは同じ内容となるため、複数のビルドが並行に同じキャッシュディレクトリを使用する事ができる。
+ * エントリの読み込みに失敗した場合は、キャッシュにないものとして扱う。<br>
+ * エントリの格納は、コピー、またはハードリンクで行う。出力ファイルの復元は、常にコピーで行う。<br>
+ * ハードリンクで復元すると、出力ファイルがエントリの古い最終更新日時を持つため、最終更新日時で変更を判定するコンパイラなどが、内容の変わった出力ファイルを変更なしと判定してしまう。
+ * また、復元した出力ファイルを直接編集すると、エントリと他のワークスペースの出力ファイルも変わってしまう。<br>
+ * エントリの最終更新日時は、キャッシュから復元する度に更新し、合計サイズが上限を超えた場合は、最終更新日時の古いエントリから削除する。
+ * ハードリンクで格納した場合は、エントリの最終更新日時を更新すると格納元の出力ファイルの最終更新日時も変わるため、
+ * エントリのファイル名に"{@value #ACCESS_SUFFIX}"を付けたアクセスファイルの最終更新日時を更新する。<br>
+ */
+public class OutputCache {
+    
+    /**
+     * 出力ファイルを生成しない事を示すエントリのファイル名の接尾辞。<p>
+     */
+    public static final String NONE_SUFFIX = ".none";
+    
+    /**
+     * ハードリンクで格納したエントリの、最終アクセス日時を記録するファイルのファイル名の接尾辞。<p>
+     */
+    public static final String ACCESS_SUFFIX = ".access";
+    
+    private static final String LAYOUT_VERSION = "v1";
+    
+    private static final String LOCK_FILE_NAME = "evict.lock";
+    
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    
+    /**
+     * エントリ毎に、ファイルの内容とは別に消費するとみなすサイズ。<p>
+     */
+    private static final long ENTRY_OVERHEAD = 256L;
+    
+    /**
+     * 削除する時に、合計サイズを上限のこの割合まで減らす。<p>
+     */
+    private static final double EVICT_RATIO = 0.9d;
+    
+    /**
+     * 作成されてからこの時間が経過した一時ファイルは、異常終了したビルドの残骸とみなして削除する。<p>
+     */
+    private static final long TEMP_FILE_EXPIRE = 60L * 60L * 1000L;
+    
+    private final File cacheDir;
+    
+    private final File entryDir;
+    
+    private final long maxSize;
+    
+    private final boolean isLink;
+    
+    private final AtomicInteger hitCount = new AtomicInteger();
+    
+    private final AtomicInteger missCount = new AtomicInteger();
+    
+    private final AtomicInteger storeCount = new AtomicInteger();
+    
+    /**
+     * キャッシュのインスタンスを生成する。<p>
+     *
+     * @param cacheDir キャッシュディレクトリ
+     * @param maxSize キャッシュの合計サイズの上限（バイト）
+     * @param isLink 出力ファイルをハードリンクで格納する場合true。復元は常にコピーで行う
+     */
+    public OutputCache(File cacheDir, long maxSize, boolean isLink) {
+        this.cacheDir = cacheDir;
+        this.entryDir = new File(cacheDir, LAYOUT_VERSION);
+        this.maxSize = maxSize;
+        this.isLink = isLink;
+    }
+    
+    /**
+     * 入力ファイルの内容のハッシュ値と、出力内容に影響する設定値から、エントリのキーを算出する。<p>
+     *
+     * @param inputHash 入力ファイルの内容のハッシュ値
+     * @param values 出力内容に影響する設定値の配列
+     * @return キー
+     */
+    public static String createKey(String inputHash, Object... values) {
+        return FingerprintIndex.hash(inputHash, FingerprintIndex.hash(values));
+    }
+    
+    /**
+     * 指定されたキーのエントリが、出力ファイルを生成しない事を示すか判定する。<p>
+     *
+     * @param key キー
+     * @return 出力ファイルを生成しない事を示すエントリが存在する場合true
+     */
+    public boolean isNone(String key) {
+        final File entry = getEntry(key + NONE_SUFFIX);
+        if (entry.isFile()) {
+            touch(entry);
+            hitCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * 指定されたキーのエントリから、出力ファイルを復元するための一時ファイルを作成する。<p>
+     * 一時ファイルは、出力ファイルと同じディレクトリに作成するため、{@link OutputWriter#commit(File, File)}で出力ファイルを置き換える事ができる。<br>
+     * 一時ファイルはエントリのコピーとし、最終更新日時は作成した時刻となる。<br>
+     *
+     * @param key キー
+     * @param toFile 出力ファイル
+     * @return 一時ファイル。エントリが存在しない場合はnull
+     * @exception IOException 一時ファイルの作成に失敗した場合
+     */
+    public File restore(String key, File toFile) throws IOException {
+        final File entry = getEntry(key);
+        if (!entry.isFile()) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        final File tmpFile = FileUtility.createTempFile(toFile);
+        try {
+            // 他のビルドが削除したエントリは、キャッシュにないものとして扱う
+            Files.copy(entry.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            tmpFile.delete();
+            missCount.incrementAndGet();
+            return null;
+        }
+        touch(entry);
+        hitCount.incrementAndGet();
+        return tmpFile;
+    }
+    
+    /**
+     * 指定された出力ファイルを、指定されたキーのエントリとして格納する。<p>
+     *
+     * @param key キー
+     * @param output 出力ファイル
+     * @exception IOException 格納に失敗した場合
+     */
+    public void put(String key, File output) throws IOException {
+        final File entry = getEntry(key);
+        if (entry.isFile()) {
+            return;
+        }
+        final File tmpFile = FileUtility.createTempFile(entry);
+        boolean isSuccess = false;
+        try {
+            if (!isLink || !link(output, tmpFile)) {
+                Files.copy(output.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            FileUtility.moveAtomically(tmpFile, entry);
+            touch(entry);
+            storeCount.incrementAndGet();
+            isSuccess = true;
+        } finally {
+            if (!isSuccess) {
+                tmpFile.delete();
+            }
+        }
+    }
+    
+    /**
+     * 指定されたキーに、出力ファイルを生成しない事を示すエントリを格納する。<p>
+     *
+     * @param key キー
+     * @exception IOException 格納に失敗した場合
+     */
+    public void putNone(String key) throws IOException {
+        final File entry = getEntry(key + NONE_SUFFIX);
+        if (entry.isFile()) {
+            return;
+        }
+        if (!entry.getParentFile().exists()) {
+            entry.getParentFile().mkdirs();
+        }
+        entry.createNewFile();
+        storeCount.incrementAndGet();
+    }
+    
+    /**
+     * キャッシュの合計サイズが上限を超えている場合に、最終更新日時の古いエントリから削除する。<p>
+     * 他のビルドが削除中の場合は、何もしない。<br>
+     *
+     * @return 削除したエントリの数
+     * @exception IOException ロックファイルの作成に失敗した場合
+     */
+    public int evict() throws IOException {
+        if (!entryDir.isDirectory()) {
+            return 0;
+        }
+        final RandomAccessFile lockFile = new RandomAccessFile(new File(cacheDir, LOCK_FILE_NAME), "rw");
+        try {
+            final FileChannel channel = lockFile.getChannel();
+            final FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return 0;
+            }
+            try {
+                return evictEntries();
+            } finally {
+                lock.release();
+            }
+        } finally {
+            try {
+                lockFile.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+    
+    private int evictEntries() {
+        final long now = System.currentTimeMillis();
+        final List<File> entries = new ArrayList<File>();
+        final Map<String, File> accessFiles = new HashMap<String, File>();
+        long totalSize = 0L;
+        final File[] subDirs = entryDir.listFiles();
+        if (subDirs == null) {
+            return 0;
+        }
+        for (File subDir : subDirs) {
+            final File[] files = subDir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                    if (file.lastModified() + TEMP_FILE_EXPIRE < now) {
+                        file.delete();
+                    }
+                    continue;
+                }
+                if (file.getName().endsWith(ACCESS_SUFFIX)) {
+                    accessFiles.put(file.getName().substring(0, file.getName().length() - ACCESS_SUFFIX.length()), file);
+                    continue;
+                }
+                entries.add(file);
+                totalSize += file.length() + ENTRY_OVERHEAD;
+            }
+        }
+        // エントリが削除済みのアクセスファイルは削除する
+        final Set<String> names = new HashSet<String>();
+        for (File entry : entries) {
+            names.add(entry.getName());
+        }
+        final Iterator<Map.Entry<String, File>> accessEntries = accessFiles.entrySet().iterator();
+        while (accessEntries.hasNext()) {
+            final Map.Entry<String, File> accessEntry = accessEntries.next();
+            if (!names.contains(accessEntry.getKey())) {
+                accessEntry.getValue().delete();
+                accessEntries.remove();
+            }
+        }
+        if (totalSize <= maxSize) {
+            return 0;
+        }
+        final long[] lastModifieds = new long[entries.size()];
+        final List<Integer> order = new ArrayList<Integer>(entries.size());
+        for (int i = 0; i < lastModifieds.length; i++) {
+            final File accessFile = accessFiles.get(entries.get(i).getName());
+            lastModifieds[i] = accessFile == null ? entries.get(i).lastModified() : accessFile.lastModified();
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                final long l1 = lastModifieds[o1.intValue()];
+                final long l2 = lastModifieds[o2.intValue()];
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+        final long targetSize = (long) (maxSize * EVICT_RATIO);
+        int count = 0;
+        for (Integer index : order) {
+            if (totalSize <= targetSize) {
+                break;
+            }
+            final File entry = entries.get(index.intValue());
+            final long size = entry.length() + ENTRY_OVERHEAD;
+            if (entry.delete()) {
+                final File accessFile = accessFiles.get(entry.getName());
+                if (accessFile != null) {
+                    accessFile.delete();
+                }
+                totalSize -= size;
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * キャッシュの利用状況を取得する。<p>
+     *
+     * @return キャッシュの利用状況を示す文字列
+     */
+    public String getStatistics() {
+        return "hits=" + hitCount.get() + " misses=" + missCount.get() + " stored=" + storeCount.get();
+    }
+    
+    /**
+     * 今回の実行でエントリを格納したか判定する。<p>
+     *
+     * @return エントリを格納した場合true
+     */
+    public boolean isStored() {
+        return storeCount.get() != 0;
+    }
+    
+    private File getEntry(String name) {
+        return new File(new File(entryDir, name.substring(0, 2)), name);
+    }
+    
+    private static boolean link(File from, File tmpFile) {
+        try {
+            tmpFile.delete();
+            Files.createLink(tmpFile.toPath(), from.toPath());
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+    
+    private void touch(File entry) {
+        final long now = System.currentTimeMillis();
+        if (!isLink || entry.getName().endsWith(NONE_SUFFIX)) {
+            entry.setLastModified(now);
+            return;
+        }
+        final File accessFile = new File(entry.getPath() + ACCESS_SUFFIX);
+        if (accessFile.setLastModified(now)) {
+            return;
+        }
+        try {
+            accessFile.createNewFile();
+        } catch (IOException e) {
+        }
+    }
+}
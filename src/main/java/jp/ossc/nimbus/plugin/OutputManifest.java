@@ -0,0 +1,230 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ゴールが生成した出力ファイルのマニフェスト。<p>
+ * 入力ファイル毎に、生成した出力ファイルを記録し、ファイルに永続化する。<br>
+ * 前回の記録にあって今回の記録にない出力ファイルは、入力ファイルが削除されたか、バージョン条件に一致しなくなった出力ファイルであるため、削除する。<br>
+ * 削除するのは、このマニフェストに記録された出力ファイルだけであり、今回の入力ファイルと同じパスのファイルは削除しない。<br>
+ */
+public class OutputManifest {
+    
+    private final File manifestFile;
+    
+    private final Map<String, String[]> entries = new HashMap<String, String[]>();
+    
+    private final Map<String, String[]> currentEntries = new ConcurrentHashMap<String, String[]>();
+    
+    /**
+     * マニフェストのインスタンスを生成する。<p>
+     *
+     * @param manifestFile マニフェストファイル
+     */
+    public OutputManifest(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+    
+    /**
+     * マニフェストファイルを読み込む。<p>
+     *
+     * @return 記録を読み込んだ場合true、マニフェストファイルが存在しない場合false
+     * @exception IOException マニフェストファイルの読み込みに失敗した場合
+     */
+    public boolean load() throws IOException {
+        entries.clear();
+        if (!manifestFile.exists()) {
+            return false;
+        }
+        final Properties prop = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(manifestFile);
+            prop.load(is);
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+        final Iterator<Map.Entry<Object, Object>> itr = prop.entrySet().iterator();
+        while (itr.hasNext()) {
+            final Map.Entry<Object, Object> propEntry = itr.next();
+            final String value = (String) propEntry.getValue();
+            entries.put(
+                (String) propEntry.getKey(),
+                value.length() == 0 ? new String[0] : value.split(File.pathSeparator)
+            );
+        }
+        return true;
+    }
+    
+    /**
+     * 指定された入力ファイルから生成した出力ファイルを記録する。<p>
+     *
+     * @param source 入力ファイル
+     * @param outputs 出力ファイルのリスト。出力しなかった場合は空のリスト
+     */
+    public void put(File source, List<File> outputs) {
+        final String[] outputPaths = new String[outputs.size()];
+        for (int i = 0; i < outputPaths.length; i++) {
+            outputPaths[i] = outputs.get(i).getAbsolutePath();
+        }
+        currentEntries.put(source.getAbsolutePath(), outputPaths);
+    }
+    
+    /**
+     * 今回処理しない入力ファイルについて、前回の記録を引き継ぐ。<p>
+     * 既に今回の記録がある場合は、何もしない。前回の記録がない場合は、出力ファイルなしとして記録する。<br>
+     *
+     * @param source 入力ファイル
+     */
+    public void retain(File source) {
+        final String path = source.getAbsolutePath();
+        if (!currentEntries.containsKey(path)) {
+            final String[] outputs = entries.get(path);
+            currentEntries.put(path, outputs == null ? new String[0] : outputs);
+        }
+    }
+    
+    /**
+     * 削除された入力ファイルの記録を削除する。<p>
+     *
+     * @param source 入力ファイル
+     */
+    public void remove(File source) {
+        currentEntries.remove(source.getAbsolutePath());
+    }
+    
+    /**
+     * 削除されたディレクトリ配下の入力ファイルの記録を削除する。<p>
+     *
+     * @param dir ディレクトリ
+     * @return 記録を削除した場合true
+     */
+    public boolean removeUnder(File dir) {
+        final String prefix = dir.getAbsolutePath() + File.separator;
+        boolean isRemoved = false;
+        final Iterator<String> paths = currentEntries.keySet().iterator();
+        while (paths.hasNext()) {
+            if (paths.next().startsWith(prefix)) {
+                paths.remove();
+                isRemoved = true;
+            }
+        }
+        return isRemoved;
+    }
+    
+    /**
+     * 前回の記録にあって今回の記録にない出力ファイルを削除する。<p>
+     * 削除後は、今回の記録を前回の記録とする。<br>
+     *
+     * @return 削除した出力ファイルのリスト
+     */
+    public List<File> prune() {
+        final Set<String> currentOutputs = new HashSet<String>(currentEntries.keySet());
+        for (String[] outputs : currentEntries.values()) {
+            for (String output : outputs) {
+                currentOutputs.add(output);
+            }
+        }
+        final List<File> result = new ArrayList<File>();
+        for (String[] outputs : entries.values()) {
+            for (String output : outputs) {
+                if (currentOutputs.add(output)) {
+                    final File file = new File(output);
+                    if (file.isFile() && file.delete()) {
+                        result.add(file);
+                    }
+                }
+            }
+        }
+        entries.clear();
+        entries.putAll(currentEntries);
+        return result;
+    }
+    
+    /**
+     * 今回の記録をマニフェストファイルに書き込む。<p>
+     *
+     * @exception IOException マニフェストファイルの書き込みに失敗した場合
+     */
+    public void store() throws IOException {
+        final Properties prop = new Properties();
+        final Iterator<Map.Entry<String, String[]>> itr = currentEntries.entrySet().iterator();
+        while (itr.hasNext()) {
+            final Map.Entry<String, String[]> entry = itr.next();
+            final StringBuilder sb = new StringBuilder();
+            final String[] outputs = entry.getValue();
+            for (int i = 0; i < outputs.length; i++) {
+                if (i != 0) {
+                    sb.append(File.pathSeparator);
+                }
+                sb.append(outputs[i]);
+            }
+            prop.setProperty(entry.getKey(), sb.toString());
+        }
+        if (!manifestFile.getParentFile().exists()) {
+            manifestFile.getParentFile().mkdirs();
+        }
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(manifestFile);
+            prop.store(os, null);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+}
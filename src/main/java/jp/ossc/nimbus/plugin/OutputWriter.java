@@ -0,0 +1,196 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 出力ファイルの書き込みを行うライター。<p>
+ * 内容が変わらない場合に書き込みを省略する設定の場合、既存の出力ファイルと内容を比較し、同一であれば書き込まずに最終更新日時を維持する。<br>
+ * これにより、後続のインクリメンタルコンパイルで不要な再コンパイルが発生しないようにする。<br>
+ * 出力ファイルは上書きせず、一時ファイルに書き込んでから置き換えるため、出力キャッシュのエントリとハードリンクで共有している内容を変更しない。<br>
+ * 書き込んだファイル数とバイト数、内容が同一で書き込まなかったファイル数を集計する。複数スレッドから並行に使用する事ができる。<br>
+ */
+public class OutputWriter {
+    
+    private final boolean isWriteIfChanged;
+    
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    
+    private final AtomicInteger unchangedCount = new AtomicInteger();
+    
+    private final AtomicLong writtenBytes = new AtomicLong();
+    
+    /**
+     * ライターのインスタンスを生成する。<p>
+     *
+     * @param isWriteIfChanged 内容が変わらない場合に書き込みを省略する場合true
+     */
+    public OutputWriter(boolean isWriteIfChanged) {
+        this.isWriteIfChanged = isWriteIfChanged;
+    }
+    
+    /**
+     * 指定されたデータを出力ファイルに書き込む。<p>
+     *
+     * @param data データ
+     * @param toFile 出力ファイル
+     * @return 書き込んだ場合true、内容が同一で書き込まなかった場合false
+     * @exception IOException 書き込みに失敗した場合
+     */
+    public boolean write(byte[] data, File toFile) throws IOException {
+        if (isWriteIfChanged && toFile.length() == data.length && toFile.isFile()
+            && Arrays.equals(data, FileUtility.dataRead(toFile))) {
+            unchangedCount.incrementAndGet();
+            return false;
+        }
+        final File tmpFile = FileUtility.createTempFile(toFile);
+        boolean isSuccess = false;
+        try {
+            FileUtility.dataWrite(data, tmpFile);
+            FileUtility.moveAtomically(tmpFile, toFile);
+            isSuccess = true;
+        } finally {
+            if (!isSuccess) {
+                tmpFile.delete();
+            }
+        }
+        writtenCount.incrementAndGet();
+        writtenBytes.addAndGet(data.length);
+        return true;
+    }
+    
+    /**
+     * 書き込みが完了した一時ファイルで、出力ファイルを置き換える。<p>
+     * 内容が同一で置き換えない場合は、一時ファイルを削除する。<br>
+     *
+     * @param tmpFile 一時ファイル
+     * @param toFile 出力ファイル
+     * @return 置き換えた場合true、内容が同一で置き換えなかった場合false
+     * @exception IOException 置き換えに失敗した場合
+     * @see FileUtility#createTempFile(File)
+     */
+    public boolean commit(File tmpFile, File toFile) throws IOException {
+        if (isWriteIfChanged && toFile.length() == tmpFile.length() && toFile.isFile()
+            && contentEquals(tmpFile, toFile)) {
+            tmpFile.delete();
+            unchangedCount.incrementAndGet();
+            return false;
+        }
+        final long length = tmpFile.length();
+        FileUtility.moveAtomically(tmpFile, toFile);
+        writtenCount.incrementAndGet();
+        writtenBytes.addAndGet(length);
+        return true;
+    }
+    
+    /**
+     * 書き込んだファイル数を取得する。<p>
+     *
+     * @return 書き込んだファイル数
+     */
+    public int getWrittenCount() {
+        return writtenCount.get();
+    }
+    
+    /**
+     * 内容が同一で書き込まなかったファイル数を取得する。<p>
+     *
+     * @return 書き込まなかったファイル数
+     */
+    public int getUnchangedCount() {
+        return unchangedCount.get();
+    }
+    
+    /**
+     * 書き込んだバイト数を取得する。<p>
+     *
+     * @return 書き込んだバイト数
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+    
+    private static boolean contentEquals(File file1, File file2) throws IOException {
+        InputStream is1 = null;
+        InputStream is2 = null;
+        try {
+            is1 = new FileInputStream(file1);
+            is2 = new FileInputStream(file2);
+            final byte[] buf1 = new byte[8192];
+            final byte[] buf2 = new byte[8192];
+            while (true) {
+                final int length1 = read(is1, buf1);
+                final int length2 = read(is2, buf2);
+                if (length1 != length2) {
+                    return false;
+                }
+                if (length1 == 0) {
+                    return true;
+                }
+                for (int i = 0; i < length1; i++) {
+                    if (buf1[i] != buf2[i]) {
+                        return false;
+                    }
+                }
+            }
+        } finally {
+            if (is1 != null) {
+                try {
+                    is1.close();
+                } catch (Exception e) {
+                }
+            }
+            if (is2 != null) {
+                try {
+                    is2.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+    
+    private static int read(InputStream is, byte[] buf) throws IOException {
+        int offset = 0;
+        int i = 0;
+        while (offset < buf.length && (i = is.read(buf, offset, buf.length - offset)) != -1) {
+            offset += i;
+        }
+        return offset;
+    }
+}
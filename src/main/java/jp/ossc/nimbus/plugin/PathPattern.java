@@ -0,0 +1,527 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * コンパイル済みのパスの正規表現。<p>
+ * {@link FileUtility#listAllTreeFiles(String, int)}で指定するパスの正規表現を、パス要素毎の正規表現と"**"の並びにコンパイルし、
+ * 正規表現を含まない先頭のディレクトリから、{@link Files#walkFileTree(Path, java.util.Set, int, java.nio.file.FileVisitor)}による1回の走査で一致するファイルを検索する。<br>
+ * 走査中は、パス要素の並びを状態とするオートマトンで各ディレクトリの一致状態を管理し、一致する可能性のないサブディレクトリは走査しない。<br>
+ * ファイル種別の判定には、ディレクトリの読み込み時に取得した属性を使用する。<br>
+ * 並列度を指定した場合は、サブディレクトリを{@link ForkJoinPool}で並列に走査する。<br>
+ * 検索結果は、従来の{@link FileUtility#listAllTreeFiles(String, int)}と同じく、浅い階層のファイルから順に、同じ階層内ではディレクトリの読み込み順に並べる。<br>
+ */
+public class PathPattern {
+    
+    private static final String ANY_DIRS = "**";
+    
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+    
+    private final File file;
+    
+    private final File baseDir;
+    
+    private final Segment[] segments;
+    
+    /**
+     * 指定されたパスの正規表現をコンパイルする。<p>
+     * パス要素の正規表現のうち、正規表現のエスケープ文字である"\"は、文字コード0で置き換えておく事。<br>
+     *
+     * @param file パスの正規表現を示すファイル
+     */
+    public PathPattern(File file) {
+        this.file = file;
+        final List<String> pathList = new ArrayList<String>();
+        File f = file;
+        String name = null;
+        do {
+            name = f.getName();
+            f = f.getParentFile();
+            pathList.add(0, name.length() == 0 ? "/" : name);
+        } while (f != null);
+        
+        File base = null;
+        int index = 0;
+        for (; index < pathList.size(); index++) {
+            name = pathList.get(index);
+            if (!isLiteral(name)) {
+                break;
+            }
+            base = base == null ? new File(name) : new File(base, name);
+        }
+        baseDir = base == null ? new File(".") : base;
+        
+        final List<Segment> segmentList = new ArrayList<Segment>();
+        for (; index < pathList.size(); index++) {
+            name = pathList.get(index);
+            final boolean isAfterAnyDirs = !segmentList.isEmpty() && segmentList.get(segmentList.size() - 1).isAnyDirs;
+            if (ANY_DIRS.equals(name)) {
+                if (!isAfterAnyDirs) {
+                    segmentList.add(new Segment(null, false));
+                }
+            } else {
+                segmentList.add(new Segment(name, !isAfterAnyDirs));
+            }
+        }
+        if (!segmentList.isEmpty() && segmentList.get(segmentList.size() - 1).isAnyDirs) {
+            segmentList.add(new Segment(".*", false));
+        }
+        segments = segmentList.toArray(new Segment[segmentList.size()]);
+    }
+    
+    private static boolean isLiteral(String name) {
+        if (ANY_DIRS.equals(name)) {
+            return false;
+        }
+        for (int i = 0, imax = name.length(); i < imax; i++) {
+            final char c = name.charAt(i);
+            if (c == FileUtility.REGEX_ESCAPE_ESCAPE.charAt(0) || REGEX_META_CHARS.indexOf(c) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * パスの正規表現に一致するファイルを検索する。<p>
+     *
+     * @param searchType 検索種別
+     * @return 一致したファイルのリスト
+     * @see FileUtility#SEARCH_TYPE_FILE
+     * @see FileUtility#SEARCH_TYPE_DIR
+     * @see FileUtility#SEARCH_TYPE_ALL
+     */
+    public List<File> listFiles(final int searchType) {
+        return listFiles(searchType, 1);
+    }
+    
+    /**
+     * パスの正規表現に一致するファイルを、指定された並列度で検索する。<p>
+     * 並列度が2以上の場合は、{@link ForkJoinPool}でサブディレクトリを並列に走査する。<br>
+     * 並列に走査した場合も、検索結果の順序は1スレッドで走査した場合と同じになる。<br>
+     *
+     * @param searchType 検索種別
+     * @param parallelism 並列度
+     * @return 一致したファイルのリスト
+     * @see FileUtility#SEARCH_TYPE_FILE
+     * @see FileUtility#SEARCH_TYPE_DIR
+     * @see FileUtility#SEARCH_TYPE_ALL
+     */
+    public List<File> listFiles(final int searchType, int parallelism) {
+        return listFiles(searchType, parallelism, null);
+    }
+    
+    /**
+     * パスの正規表現に一致するファイルを、指定された並列度で検索し、走査したディレクトリの最終更新日時を記録する。<p>
+     * ディレクトリの最終更新日時は、ディレクトリ直下のファイルの追加や削除で更新されるため、記録した全てのディレクトリの最終更新日時が変わっていなければ、検索結果は変わらない。<br>
+     * 走査せずに検索結果が決まった場合は、何も記録しない。<br>
+     *
+     * @param searchType 検索種別
+     * @param parallelism 並列度
+     * @param visitedDirs 走査したディレクトリと最終更新日時を記録するマップ。並列に走査する場合はスレッドセーフなマップである事。記録しない場合はnull
+     * @return 一致したファイルのリスト
+     * @see FileUtility#SEARCH_TYPE_FILE
+     * @see FileUtility#SEARCH_TYPE_DIR
+     * @see FileUtility#SEARCH_TYPE_ALL
+     */
+    public List<File> listFiles(final int searchType, int parallelism, Map<File, Long> visitedDirs) {
+        final List<File> result = new ArrayList<File>();
+        if (file.exists()) {
+            if (isTarget(searchType, file.isDirectory(), file.isFile())) {
+                result.add(file);
+            }
+            return result;
+        }
+        if (segments.length == 0 || !baseDir.isDirectory()) {
+            return result;
+        }
+        final Path basePath = baseDir.toPath();
+        final BitSet initial = new BitSet();
+        addState(initial, 0);
+        if (parallelism > 1) {
+            BasicFileAttributes rootAttrs = null;
+            try {
+                rootAttrs = Files.readAttributes(basePath, BasicFileAttributes.class);
+            } catch (IOException e) {
+                return result;
+            }
+            if (visitedDirs != null) {
+                visitedDirs.put(basePath.toFile(), rootAttrs.lastModifiedTime().toMillis());
+            }
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                return sortByDepth(pool.invoke(new WalkTask(new Frame(basePath, initial), new Ancestor(basePath, rootAttrs.fileKey(), null), searchType, visitedDirs)));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        final LinkedList<Frame> stack = new LinkedList<Frame>();
+        try {
+            walk(basePath, initial, stack, searchType, result, visitedDirs);
+        } catch (IOException e) {
+            // 走査中のエラーは全てvisitFileFailedで無視するため、発生しない
+            throw new IllegalStateException(e);
+        }
+        return sortByDepth(result);
+    }
+    
+    /**
+     * 深さ優先で走査した検索結果を、幅優先で走査した場合の順序に並べ替える。<p>
+     * 深さ優先の順序を保ったまま階層の浅い順に並べると、同じ階層内では親ディレクトリの幅優先の順序、ディレクトリの読み込み順の順に並ぶ。<br>
+     *
+     * @param files 深さ優先で走査した検索結果
+     * @return 幅優先で走査した場合の順序の検索結果
+     */
+    private static List<File> sortByDepth(List<File> files) {
+        final List<List<File>> levels = new ArrayList<List<File>>();
+        for (File f : files) {
+            final int depth = f.toPath().getNameCount();
+            while (levels.size() <= depth) {
+                levels.add(new ArrayList<File>());
+            }
+            levels.get(depth).add(f);
+        }
+        final List<File> result = new ArrayList<File>(files.size());
+        for (List<File> level : levels) {
+            result.addAll(level);
+        }
+        return result;
+    }
+    
+    private void walk(
+        Path basePath,
+        final BitSet initial,
+        final LinkedList<Frame> stack,
+        final int searchType,
+        final List<File> result,
+        final Map<File, Long> visitedDirs
+    ) throws IOException {
+        Files.walkFileTree(
+            basePath,
+            EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+            Integer.MAX_VALUE,
+            new SimpleFileVisitor<Path>() {
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (stack.isEmpty()) {
+                        stack.addFirst(new Frame(dir, initial));
+                        if (visitedDirs != null) {
+                            visitedDirs.put(dir.toFile(), attrs.lastModifiedTime().toMillis());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                    final BitSet next = advance(stack.getFirst(), dir, true);
+                    if (next.get(segments.length)) {
+                        if (isTarget(searchType, true, false)) {
+                            result.add(dir.toFile());
+                        }
+                        next.clear(segments.length);
+                    }
+                    if (next.isEmpty()) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    stack.addFirst(new Frame(dir, next));
+                    if (visitedDirs != null) {
+                        visitedDirs.put(dir.toFile(), attrs.lastModifiedTime().toMillis());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    final boolean isDir = attrs.isDirectory();
+                    final boolean isFile = attrs.isRegularFile();
+                    if (!isDir && !isFile) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (advance(stack.getFirst(), path, isDir).get(segments.length)
+                        && isTarget(searchType, isDir, isFile)) {
+                        result.add(path.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    stack.removeFirst();
+                    return FileVisitResult.CONTINUE;
+                }
+            }
+        );
+    }
+    
+    private BitSet advance(Frame parent, Path path, boolean isDir) {
+        final String name = path.getFileName().toString();
+        final BitSet next = new BitSet();
+        final BitSet states = parent.states;
+        for (int i = states.nextSetBit(0); i >= 0; i = states.nextSetBit(i + 1)) {
+            if (i == segments.length) {
+                continue;
+            }
+            final Segment segment = segments[i];
+            if (segment.isAnyDirs) {
+                if (isDir) {
+                    addState(next, i);
+                }
+            } else if (segment.matches(parent, i, name)) {
+                addState(next, i + 1);
+            }
+        }
+        return next;
+    }
+    
+    private void addState(BitSet states, int index) {
+        states.set(index);
+        if (index < segments.length && segments[index].isAnyDirs) {
+            addState(states, index + 1);
+        }
+    }
+    
+    private static boolean isTarget(int searchType, boolean isDir, boolean isFile) {
+        if (!isDir && !isFile) {
+            return false;
+        }
+        switch (searchType) {
+        case FileUtility.SEARCH_TYPE_FILE:
+            return !isDir;
+        case FileUtility.SEARCH_TYPE_DIR:
+            return !isFile;
+        case FileUtility.SEARCH_TYPE_ALL:
+        default:
+            return true;
+        }
+    }
+    
+    private static class Segment {
+        
+        final boolean isAnyDirs;
+        
+        final String literal;
+        
+        final FileFilter filter;
+        
+        final boolean isPreferLiteral;
+        
+        Segment(String name, boolean isPreferLiteral) {
+            isAnyDirs = name == null;
+            literal = name;
+            filter = name == null ? null : new FileFilter(name.replaceAll(FileUtility.REGEX_ESCAPE_ESCAPE, "\\\\"));
+            this.isPreferLiteral = isPreferLiteral && name != null && !isLiteral(name);
+        }
+        
+        /**
+         * ファイル名が一致するか判定する。<p>
+         * "**"の直後以外のパス要素は、正規表現と同じ名前のファイルが存在する場合、その名前にのみ一致する。<br>
+         */
+        boolean matches(Frame parent, int index, String name) {
+            if (isPreferLiteral && parent.isLiteralExists(index, literal)) {
+                return literal.equals(name);
+            }
+            return filter.accept(null, name);
+        }
+    }
+    
+    /**
+     * 1つのディレクトリを走査するタスク。<p>
+     * サブディレクトリは別のタスクとしてフォークし、ディレクトリの読み込み順に検索結果を連結する。<br>
+     * 走査中のエラーは、{@link Files#walkFileTree(Path, java.util.Set, int, java.nio.file.FileVisitor)}による走査と同様に無視する。<br>
+     */
+    private class WalkTask extends RecursiveTask<List<File>> {
+        
+        private static final long serialVersionUID = 2187313095390245137L;
+        
+        private final Frame frame;
+        
+        private final Ancestor ancestor;
+        
+        private final int searchType;
+        
+        private final Map<File, Long> visitedDirs;
+        
+        WalkTask(Frame frame, Ancestor ancestor, int searchType, Map<File, Long> visitedDirs) {
+            this.frame = frame;
+            this.ancestor = ancestor;
+            this.searchType = searchType;
+            this.visitedDirs = visitedDirs;
+        }
+        
+        protected List<File> compute() {
+            // 一致したファイルと、サブディレクトリのタスクを、ディレクトリの読み込み順に保持する
+            final List<Object> entries = new ArrayList<Object>();
+            DirectoryStream<Path> stream = null;
+            try {
+                stream = Files.newDirectoryStream(frame.dir);
+                for (Path path : stream) {
+                    BasicFileAttributes attrs = null;
+                    try {
+                        attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    final boolean isDir = attrs.isDirectory();
+                    final boolean isFile = attrs.isRegularFile();
+                    if (!isDir && !isFile) {
+                        continue;
+                    }
+                    final BitSet next = advance(frame, path, isDir);
+                    if (!isDir) {
+                        if (next.get(segments.length) && isTarget(searchType, false, true)) {
+                            entries.add(path.toFile());
+                        }
+                        continue;
+                    }
+                    if (ancestor.isLoop(path, attrs.fileKey())) {
+                        continue;
+                    }
+                    if (next.get(segments.length)) {
+                        if (isTarget(searchType, true, false)) {
+                            entries.add(path.toFile());
+                        }
+                        next.clear(segments.length);
+                    }
+                    if (!next.isEmpty()) {
+                        if (visitedDirs != null) {
+                            visitedDirs.put(path.toFile(), attrs.lastModifiedTime().toMillis());
+                        }
+                        final WalkTask task = new WalkTask(new Frame(path, next), new Ancestor(path, attrs.fileKey(), ancestor), searchType, visitedDirs);
+                        task.fork();
+                        entries.add(task);
+                    }
+                }
+            } catch (IOException e) {
+            } catch (DirectoryIteratorException e) {
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (Exception e) {
+                    }
+                }
+            }
+            final List<File> result = new ArrayList<File>();
+            for (Object entry : entries) {
+                if (entry instanceof WalkTask) {
+                    result.addAll(((WalkTask) entry).join());
+                } else {
+                    result.add((File) entry);
+                }
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * シンボリックリンクによるディレクトリの循環を検出するための、走査中のディレクトリの祖先。<p>
+     */
+    private static class Ancestor {
+        
+        final Path dir;
+        
+        final Object fileKey;
+        
+        final Ancestor parent;
+        
+        Ancestor(Path dir, Object fileKey, Ancestor parent) {
+            this.dir = dir;
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+        
+        boolean isLoop(Path path, Object key) {
+            for (Ancestor a = this; a != null; a = a.parent) {
+                if (key != null && a.fileKey != null) {
+                    if (key.equals(a.fileKey)) {
+                        return true;
+                    }
+                } else {
+                    try {
+                        if (Files.isSameFile(path, a.dir)) {
+                            return true;
+                        }
+                    } catch (IOException e) {
+                    }
+                }
+            }
+            return false;
+        }
+    }
+    
+    private static class Frame {
+        
+        final Path dir;
+        
+        final BitSet states;
+        
+        private BitSet checkedLiterals;
+        
+        private BitSet existsLiterals;
+        
+        Frame(Path dir, BitSet states) {
+            this.dir = dir;
+            this.states = states;
+        }
+        
+        boolean isLiteralExists(int index, String literal) {
+            if (checkedLiterals == null) {
+                checkedLiterals = new BitSet();
+                existsLiterals = new BitSet();
+            }
+            if (!checkedLiterals.get(index)) {
+                checkedLiterals.set(index);
+                if (new File(dir.toFile(), literal).exists()) {
+                    existsLiterals.set(index);
+                }
+            }
+            return existsLiterals.get(index);
+        }
+    }
+}
@@ -31,23 +31,28 @@
  */
 package jp.ossc.nimbus.plugin;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
-import javax.script.ScriptException;
-
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
-import org.apache.maven.plugin.MojoFailureException;
 
 /**
  * replace
@@ -56,12 +61,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * @phase generate-sources
  *
  */
-public class ReplaceMojo extends AbstractMojo {
-
-    /**
-     * @parameter
-     */
-    private String version;
+public class ReplaceMojo extends AbstractVersionFileMojo {
 
     /**
      * @parameter
@@ -71,219 +71,250 @@ public class ReplaceMojo extends AbstractMojo {
     /**
      * @parameter
      */
-    private File fromDir;
-
-    /**
-     * @parameter
-     */
-    private File toDir;
+    private String[] replaceTargetDirs;
 
     /**
      * @parameter
      */
-    private String[] replaceTargetDirs;
+    private String checkTargetPrefix;
 
     /**
-     * @parameter
+     * @parameter default-value="singlePass"
      */
-    private String fromFileExtention;
+    private String replaceMode = MarkerReplacer.MODE_SINGLE_PASS;
 
     /**
-     * @parameter
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/replace-${mojoExecution.executionId}.index"
      */
-    private String toFileExtention = "java";
+    private File indexFile;
 
     /**
-     * @parameter
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/replace-${mojoExecution.executionId}.manifest"
      */
-    private String checkTargetPrefix;
+    private File manifestFile;
 
     /**
-     * @parameter
+     * @parameter default-value="${project.build.directory}/nimbus-version-filecontrol/replace-${mojoExecution.executionId}-report.json"
      */
-    private String encoding;
+    private File reportFile;
 
-    private static final String LINE_SEP = System.getProperty("line.separator");
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
 
-    private static final String REPLACE_EMPTY_STR = "";
+    // 配列に収まる大きさのファイルは、ワーカースレッド毎の配列を再利用して読み込む
+    private final ThreadLocal<byte[]> readBuffers = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
 
-    private static final String REPLACE_START_STR = "/* **Version Difference Comment Start**";
+    private String outputCacheConfig;
 
-    private static final String REPLACE_END_STR = "**Version Difference Comment End** */";
+    private Set<File> replaceTargetDirSet;
 
-    /**
-     * Execute.
-     *
-     * @throws MojoExecutionException predictable error
-     * @throws MojoFailureException unpredictable error
-     */
-    public void execute() throws MojoExecutionException, MojoFailureException {
-
-        try {
-            getLog().info("replace start");
+    public ReplaceMojo() {
+        super("replace");
+    }
 
-            if (version == null || "".equals(version)) {
-                getLog().info("version is not found config.");
-                version = System.getProperty("nimbus.version.filecontrol.target");
-                if (version == null || "".equals(version)) {
-                    throw new MojoExecutionException("target version is null or empty.");
-                }
-            }
-            getLog().info("check target version=" + version);
+    protected void configureGoal() throws Exception {
+        if (replaceTargetDirs == null) {
+            getLog().error("replaceTargetDirs is null.");
+            throw new MojoExecutionException("replaceTargetDirs is null.");
+        } else if (replaceTargetDirs.length == 0) {
+            getLog().error("replaceTargetDirs size is 0.");
+            throw new MojoExecutionException("replaceTargetDirs size is 0.");
+        }
+        for (String replaceTargetDir : replaceTargetDirs) {
+            getLog().info("source replace replaceTargetDir=" + replaceTargetDir);
+        }
+        replaceTargetDirSet = null;
 
-            if (checkVersions == null || checkVersions.length == 0) {
-                getLog().error("checkVersions is null or empty.");
-                throw new MojoExecutionException("checkVersions is null or empty.");
-            }
-            getLog().info("checkVersions=" + Arrays.asList(checkVersions));
+        createMarkerReplacers(checkVersions, checkTargetPrefix, replaceMode);
 
-            if (fromDir == null) {
-                getLog().error("fromDir is null.");
-                throw new MojoExecutionException("fromDir is null.");
-            } else if (!fromDir.exists()) {
-                getLog().error("fromDir is not exists.");
-                throw new MojoExecutionException("fromDir is not exists.");
-            } else if (!fromDir.isDirectory()) {
-                getLog().error("fromDir is not directory.");
-                throw new MojoExecutionException("fromDir is not directory.");
-            }
-            getLog().info("source replace fromDir=" + fromDir.getAbsolutePath());
-
-            if (toDir == null) {
-                getLog().error("toDir is null.");
-                throw new MojoExecutionException("toDir is null.");
-            } else if (!toDir.exists()) {
-                if (toDir.mkdirs()) {
-                    getLog().info("toDir is not exists. toDir created.");
-                } else {
-                    getLog().error("toDir is not exists. toDir could not create.");
-                    throw new MojoExecutionException("toDir is not exists. toDir could not create.");
+        if (ByteScanner.MODE_BYTE.equals(scanMode)) {
+            if (targets.get(0).markerReplacer.isLegacy()) {
+                getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available with replaceMode=" + MarkerReplacer.MODE_LEGACY + ".");
+            } else {
+                try {
+                    byteScanner = new ByteScanner(encoding, checkVersions, checkTargetPrefix);
+                    for (Target target : targets) {
+                        target.replacements = byteScanner.createReplacements(target.markerReplacer);
+                    }
+                } catch (IllegalArgumentException e) {
+                    getLog().info("scanMode=" + ByteScanner.MODE_BYTE + " is not available. " + e.getMessage());
                 }
-            } else if (!toDir.isDirectory()) {
-                getLog().error("toDir is not directory.");
-                throw new MojoExecutionException("toDir is not directory.");
             }
-            getLog().info("source replace toDir=" + toDir.getAbsolutePath());
+        }
+        outputCacheConfig = FingerprintIndex.hash("replace", checkVersions, checkTargetPrefix, encoding, replaceMode, byteScanner == null, LINE_SEP);
+    }
 
-            if (replaceTargetDirs == null) {
-                getLog().error("replaceTargetDirs is null.");
-                throw new MojoExecutionException("replaceTargetDirs is null.");
-            } else if (replaceTargetDirs.length == 0) {
-                getLog().error("replaceTargetDirs size is 0.");
-                throw new MojoExecutionException("replaceTargetDirs size is 0.");
-            }
-            for (String replaceTargetDir : replaceTargetDirs) {
-                getLog().info("source replace replaceTargetDir=" + replaceTargetDir);
-            }
+    protected File getIndexFile() {
+        return indexFile;
+    }
 
-            if (fromFileExtention == null) {
-                getLog().error("fromFileExtention is null.");
-                throw new MojoExecutionException("fromFileExtention is null.");
-            } else if ("".equals(fromFileExtention)) {
-                getLog().error("fromFileExtention is empty.");
-                throw new MojoExecutionException("fromFileExtention is empty.");
-            } else if (fromFileExtention.startsWith(".")) {
-                fromFileExtention = fromFileExtention.substring(1);
-            }
-            getLog().info("source replace fromFileExtention=" + fromFileExtention);
+    protected String getIndexConfig(String[] targetDirs) {
+        return FingerprintIndex.hash("replace", checkVersions, fromDir.getAbsolutePath(), targetDirs, replaceTargetDirs, fromFileExtention, toFileExtention, checkTargetPrefix, encoding, preserveLastModified, byteScanner == null);
+    }
 
-            if (toFileExtention == null) {
-                getLog().error("toFileExtention is null.");
-                throw new MojoExecutionException("toFileExtention is null.");
-            } else if ("".equals(toFileExtention)) {
-                getLog().error("toFileExtention is empty.");
-                throw new MojoExecutionException("toFileExtention is empty.");
-            } else if (toFileExtention.startsWith(".")) {
-                toFileExtention = toFileExtention.substring(1);
-            }
-            getLog().info("source replace toFileExtention=" + toFileExtention);
+    protected File getManifestFile() {
+        return manifestFile;
+    }
 
-            if (checkTargetPrefix == null || "".equals(checkTargetPrefix)) {
-                getLog().error("checkTargetPrefix is null or empty.");
-                throw new MojoExecutionException("checkTargetPrefix is null or empty.");
-            }
-            getLog().info("checkTargetPrefix=" + checkTargetPrefix);
+    protected File getReportFile() {
+        return reportFile;
+    }
 
-            if (encoding == null || "".equals(encoding)) {
-                getLog().info("source replace encoding is not found config. read or write of the target file is system default encoding.");
-            } else {
-                getLog().info("source replace encoding=" + encoding);
+    protected File[] listTargetFiles() {
+        Set<File> targetFileSet = new LinkedHashSet<File>();
+        for (String replaceTargetDirName : replaceTargetDirs) {
+            File[] targetFiles = listAllTreeFiles(replaceTargetDirName + "/.*\\\\." + fromFileExtention);
+            if (targetFiles != null && targetFiles.length > 0) {
+                targetFileSet.addAll(Arrays.asList(targetFiles));
             }
+        }
+        return targetFileSet.toArray(new File[targetFileSet.size()]);
+    }
 
+    /**
+     * 指定されたファイルが、置換対象ディレクトリ直下の入力ファイルか判定する。<p>
+     * 削除された入力ファイルについても判定するため、置換対象ディレクトリに一致する既存のディレクトリと、親ディレクトリを比較する。<br>
+     * 置換対象ディレクトリごと削除された場合は判定できないため、pruneStaleOutputsで前回の出力ファイルを削除する。<br>
+     *
+     * @param file ファイル
+     * @return 置換対象ディレクトリ直下で、入力ファイルの拡張子を持つ場合true
+     */
+    protected boolean isTargetFile(File file) {
+        if (!super.isTargetFile(file)) {
+            return false;
+        }
+        if (replaceTargetDirSet == null) {
+            Set<File> dirs = new HashSet<File>();
             FileUtility rFromDir = new FileUtility(fromDir);
             for (String replaceTargetDirName : replaceTargetDirs) {
-                File[] targetFiles = rFromDir.listAllTreeFiles(replaceTargetDirName + "/.*\\\\." + fromFileExtention);
-                if (targetFiles != null && targetFiles.length > 0) {
-                    for (File targetFile : targetFiles) {
-                        String tmpFileName = targetFile.getAbsolutePath().substring(fromDir.getAbsolutePath().length());
-                        File toFile = new File(
-                                toDir.getAbsolutePath() + tmpFileName.substring(0, tmpFileName.lastIndexOf(fromFileExtention)) + toFileExtention);
-                        FileUtility.dataCopy(targetFile, toFile);
-                        replace(toFile);
-                        getLog().info("File copy from=" + targetFile.getAbsolutePath() + " to=" + toFile.getAbsolutePath());
-                    }
-                }
+                dirs.addAll(Arrays.asList(rFromDir.listAllTreeFiles(replaceTargetDirName, FileUtility.SEARCH_TYPE_DIR, 1)));
             }
-        } catch (ScriptException ex) {
-            getLog().error(ex.getMessage());
-            throw new MojoExecutionException("replace failed.", ex);
-        } catch (Throwable th) {
-            getLog().error(th.getMessage());
-            throw new MojoFailureException("replace failed");
+            replaceTargetDirSet = dirs;
         }
+        return replaceTargetDirSet.contains(file.getParentFile());
     }
 
-    private void replace(File file) throws Exception {
-        StringBuilder sb = new StringBuilder();
+    protected List<File> process(File file, List<String> messages, List<File> changedFiles, Set<String> references, FingerprintIndex.Fingerprint fingerprint) throws Exception {
+        File[] toFiles = new File[targets.size()];
+        File[] tmpFiles = new File[toFiles.length];
+        Writer[] writers = new Writer[toFiles.length];
+        OutputStream[] outs = new OutputStream[toFiles.length];
         Reader reader = null;
         BufferedReader br = null;
-        Writer writer = null;
-        PrintWriter pw = null;
+        long time = System.nanoTime();
+        String[] cacheKeys = null;
+        long lastModified = 0L;
+        long length = 0L;
         try {
-            reader = encoding == null ? new InputStreamReader(new FileInputStream(file)) : new InputStreamReader(new FileInputStream(file), encoding);
+            report.addMatched();
+            report.addBytesIn(file.length());
+            if (outputCache != null) {
+                lastModified = file.lastModified();
+                length = file.length();
+                String inputHash = scanCache == null ? FingerprintIndex.hash(file) : scanCache.hash(file);
+                if (fingerprint != null) {
+                    fingerprint.setHash(inputHash);
+                }
+                cacheKeys = createCacheKeys(inputHash, outputCacheConfig);
+                List<File> restored = restore(file, cacheKeys, messages, changedFiles);
+                if (restored != null) {
+                    if (references != null) {
+                        // 復元した出力からは置換したマーカーが分からないため、全ての比較バージョンに依存するとみなす
+                        references.addAll(Arrays.asList(checkVersions));
+                    }
+                    report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+                    return restored;
+                }
+                time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+            }
+            if (byteScanner != null) {
+                ByteBuffer data = FileUtility.dataReadBuffer(file, readBuffers.get());
+                if (fingerprint != null) {
+                    fingerprint.setHash(FingerprintIndex.hash(data));
+                }
+                time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+                byte[][][] replacements = new byte[toFiles.length][][];
+                for (int i = 0; i < toFiles.length; i++) {
+                    toFiles[i] = getToFile(targets.get(i), file);
+                    tmpFiles[i] = FileUtility.createTempFile(toFiles[i]);
+                    outs[i] = new BufferedOutputStream(new FileOutputStream(tmpFiles[i]));
+                    replacements[i] = targets.get(i).replacements;
+                }
+                time = report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+                // 置換と書き込みは1回の走査で行うため、評価の処理時間に含める
+                byteScanner.replace(data, replacements, outs, LINE_SEP, references);
+                time = report.addPhaseTimeFrom(GoalReport.PHASE_EVALUATION, time);
+                for (int i = 0; i < outs.length; i++) {
+                    OutputStream out = outs[i];
+                    outs[i] = null;
+                    out.close();
+                }
+                List<File> result = commit(file, toFiles, tmpFiles, messages, changedFiles);
+                report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+                store(file, cacheKeys, toFiles, lastModified, length);
+                return result;
+            }
+            for (int i = 0; i < toFiles.length; i++) {
+                toFiles[i] = getToFile(targets.get(i), file);
+                tmpFiles[i] = FileUtility.createTempFile(toFiles[i]);
+                writers[i] = new BufferedWriter(
+                    encoding == null ? new OutputStreamWriter(new FileOutputStream(tmpFiles[i])) : new OutputStreamWriter(new FileOutputStream(tmpFiles[i]), encoding)
+                );
+            }
+            // インデックスに記録するハッシュ値は、実際に読み込んだ内容から算出する
+            MessageDigest digest = null;
+            InputStream is = new FileInputStream(file);
+            if (fingerprint != null) {
+                digest = FingerprintIndex.createDigest();
+                is = new DigestInputStream(is, digest);
+            }
+            reader = encoding == null ? new InputStreamReader(is) : new InputStreamReader(is, encoding);
             br = new BufferedReader(reader);
+            time = report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+            // 行毎の時刻の取得を最小限にするため、フェーズ毎の処理時間はファイル単位で集計して加算する
+            long readTime = 0;
+            long evaluationTime = 0;
+            long writeTime = 0;
+            String[] replacedLines = new String[writers.length];
             String line = null;
             while ((line = br.readLine()) != null) {
-                for (String checkVersion : checkVersions) {
-                    int compareTo = Integer.parseInt(version) - Integer.parseInt(checkVersion);
-                    if (compareTo == 0) {
-                        line = line.replaceAll("@START=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@END=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@START>" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
-                        line = line.replaceAll("@END>" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
-                        line = line.replaceAll("@START>=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@END>=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@START<" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
-                        line = line.replaceAll("@END<" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
-                        line = line.replaceAll("@START<=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@END<=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                    } else if (compareTo > 0) {
-                        line = line.replaceAll("@START=" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
-                        line = line.replaceAll("@END=" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
-                        line = line.replaceAll("@START>" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@END>" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@START>=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@END>=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@START<" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
-                        line = line.replaceAll("@END<" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
-                        line = line.replaceAll("@START<=" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
-                        line = line.replaceAll("@END<=" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
-                    } else {
-                        line = line.replaceAll("@START=" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
-                        line = line.replaceAll("@END=" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
-                        line = line.replaceAll("@START>" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
-                        line = line.replaceAll("@END>" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
-                        line = line.replaceAll("@START>=" + checkTargetPrefix + checkVersion + "@", REPLACE_START_STR);
-                        line = line.replaceAll("@END>=" + checkTargetPrefix + checkVersion + "@", REPLACE_END_STR);
-                        line = line.replaceAll("@START<" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@END<" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@START<=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                        line = line.replaceAll("@END<=" + checkTargetPrefix + checkVersion + "@", REPLACE_EMPTY_STR);
-                    }
+                long now = System.nanoTime();
+                readTime += now - time;
+                time = now;
+                for (int i = 0; i < writers.length; i++) {
+                    // 全ての対象で同じマーカーを置換するため、比較バージョンは最初の対象でのみ記録する
+                    replacedLines[i] = targets.get(i).markerReplacer.replace(line, i == 0 ? references : null);
+                }
+                now = System.nanoTime();
+                evaluationTime += now - time;
+                time = now;
+                for (int i = 0; i < writers.length; i++) {
+                    writers[i].write(replacedLines[i]);
+                    writers[i].write(LINE_SEP);
                 }
-                sb.append(line);
-                sb.append(LINE_SEP);
+                now = System.nanoTime();
+                writeTime += now - time;
+                time = now;
+            }
+            if (digest != null) {
+                fingerprint.setHash(FingerprintIndex.toHexString(digest.digest()));
+            }
+            report.addPhaseTime(GoalReport.PHASE_READ, readTime);
+            report.addPhaseTime(GoalReport.PHASE_EVALUATION, evaluationTime);
+            report.addPhaseTime(GoalReport.PHASE_WRITE, writeTime);
+            time = report.addPhaseTimeFrom(GoalReport.PHASE_READ, time);
+            for (int i = 0; i < writers.length; i++) {
+                Writer writer = writers[i];
+                writers[i] = null;
+                writer.close();
             }
+            List<File> result = commit(file, toFiles, tmpFiles, messages, changedFiles);
+            report.addPhaseTimeFrom(GoalReport.PHASE_WRITE, time);
+            store(file, cacheKeys, toFiles, lastModified, length);
+            return result;
         } finally {
             if (br != null) {
                 try {
@@ -297,25 +328,23 @@ public class ReplaceMojo extends AbstractMojo {
                 } catch (Exception e) {
                 }
             }
-        }
-        try {
-            writer = encoding == null ? new OutputStreamWriter(new FileOutputStream(file)) : new OutputStreamWriter(new FileOutputStream(file), encoding);
-            pw = new PrintWriter(new BufferedWriter(writer));
-            pw.print(sb.toString());
-            pw.flush();
-        } finally {
-            if (pw != null) {
-                try {
-                    pw.close();
-                } catch (Exception e) {
+            for (Writer writer : writers) {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (Exception e) {
+                    }
                 }
             }
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (Exception e) {
+            for (OutputStream out : outs) {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (Exception e) {
+                    }
                 }
             }
+            deleteTempFiles(tmpFiles);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,260 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ビルドセッション内の全てのゴールの実行で共有する走査結果のキャッシュ。<p>
+ * マルチモジュールビルドで、複数のモジュールが同じ入力ディレクトリを対象とする場合に、ディレクトリの走査、入力ファイルのハッシュ値の算出、およびバージョン条件の解析を、ビルド中に1度だけ行うためのキャッシュである。<br>
+ * キャッシュは、ビルドセッションを示すキーオブジェクト毎に生成され、キーオブジェクトが不要になるとキャッシュも破棄される。<br>
+ * 他のゴールの実行が入力ディレクトリにファイルを出力する場合に備えて、キャッシュした値は、取得の度に最終更新日時とサイズで検証する。<br>
+ * 最終更新日時の精度が粗いファイルシステムで、走査や読み込みの直後に行われた変更を見逃さないように、最終更新日時が直近のファイルやディレクトリの結果はキャッシュしない。<br>
+ */
+public class ScanCache {
+    
+    /**
+     * 最終更新日時が、この時間よりも現在時刻に近い場合は、キャッシュしない。<p>
+     */
+    private static final long RACY_INTERVAL = 2000L;
+    
+    private static final Map<Object, ScanCache> CACHES = Collections.synchronizedMap(new WeakHashMap<Object, ScanCache>());
+    
+    private final ConcurrentMap<String, Listing> listings = new ConcurrentHashMap<String, Listing>();
+    
+    private final ConcurrentMap<String, Stamped<String>> hashes = new ConcurrentHashMap<String, Stamped<String>>();
+    
+    private final ConcurrentMap<String, Stamped<List<VersionCondition>>> conditions = new ConcurrentHashMap<String, Stamped<List<VersionCondition>>>();
+    
+    private final AtomicLong listingHits = new AtomicLong();
+    
+    private final AtomicLong listingMisses = new AtomicLong();
+    
+    private final AtomicLong hashHits = new AtomicLong();
+    
+    private final AtomicLong hashMisses = new AtomicLong();
+    
+    private final AtomicLong conditionHits = new AtomicLong();
+    
+    private final AtomicLong conditionMisses = new AtomicLong();
+    
+    /**
+     * 指定されたビルドセッションのキャッシュを取得する。<p>
+     * キャッシュが存在しない場合は、生成する。<br>
+     *
+     * @param sessionKey ビルドセッションを示すキーオブジェクト
+     * @return キャッシュ
+     */
+    public static ScanCache getInstance(Object sessionKey) {
+        synchronized (CACHES) {
+            ScanCache cache = CACHES.get(sessionKey);
+            if (cache == null) {
+                cache = new ScanCache();
+                CACHES.put(sessionKey, cache);
+            }
+            return cache;
+        }
+    }
+    
+    /**
+     * 指定されたディレクトリ配下で、指定された正規表現に一致するファイル配列を取得する。<p>
+     * 前回の走査で記録した全てのディレクトリの最終更新日時が変わっていない場合は、前回の検索結果を返す。<br>
+     *
+     * @param dir ディレクトリ
+     * @param regexPath パスの正規表現
+     * @param searchType 検索種別
+     * @param parallelism 並列度
+     * @return ファイル配列
+     * @see FileUtility#listAllTreeFiles(String, int, int)
+     */
+    public File[] listAllTreeFiles(File dir, String regexPath, int searchType, int parallelism) {
+        final String key = dir.getAbsolutePath() + File.pathSeparator + searchType + File.pathSeparator + regexPath;
+        final Listing listing = listings.get(key);
+        if (listing != null && listing.isValid()) {
+            listingHits.incrementAndGet();
+            return listing.files.clone();
+        }
+        listingMisses.incrementAndGet();
+        final long scanTime = System.currentTimeMillis();
+        final Map<File, Long> visitedDirs = new ConcurrentHashMap<File, Long>();
+        final File[] files = new FileUtility(dir).listAllTreeFiles(regexPath, searchType, parallelism, visitedDirs);
+        boolean isCacheable = !visitedDirs.isEmpty();
+        for (Long lastModified : visitedDirs.values()) {
+            if (isRacy(lastModified.longValue(), scanTime)) {
+                isCacheable = false;
+                break;
+            }
+        }
+        if (isCacheable) {
+            listings.put(key, new Listing(files.clone(), visitedDirs));
+        } else {
+            listings.remove(key);
+        }
+        return files;
+    }
+    
+    /**
+     * 指定されたファイルの内容のハッシュ値を取得する。<p>
+     * 前回算出した時から、最終更新日時とサイズが変わっていない場合は、前回のハッシュ値を返す。<br>
+     *
+     * @param file ファイル
+     * @return ハッシュ値の16進数文字列
+     * @exception IOException ファイルの読み込みに失敗した場合
+     * @see FingerprintIndex#hash(File)
+     */
+    public String hash(File file) throws IOException {
+        final String key = file.getAbsolutePath();
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        final Stamped<String> stamped = hashes.get(key);
+        if (stamped != null && stamped.isValid(lastModified, length)) {
+            hashHits.incrementAndGet();
+            return stamped.value;
+        }
+        hashMisses.incrementAndGet();
+        final long readTime = System.currentTimeMillis();
+        final String hash = FingerprintIndex.hash(file);
+        put(hashes, key, lastModified, length, readTime, hash);
+        return hash;
+    }
+    
+    /**
+     * 指定されたファイルについて、キャッシュしたバージョン条件を取得する。<p>
+     *
+     * @param file ファイル
+     * @param configKey バージョン条件の解析に影響する設定値から算出したキー
+     * @param lastModified 現在のファイルの最終更新日時
+     * @param length 現在のファイルのサイズ
+     * @return バージョン条件のリスト。キャッシュされていない場合、またはファイルが変更されている場合はnull
+     */
+    public List<VersionCondition> getConditions(File file, String configKey, long lastModified, long length) {
+        final Stamped<List<VersionCondition>> stamped = conditions.get(configKey + File.pathSeparator + file.getAbsolutePath());
+        if (stamped != null && stamped.isValid(lastModified, length)) {
+            conditionHits.incrementAndGet();
+            return stamped.value;
+        }
+        conditionMisses.incrementAndGet();
+        return null;
+    }
+    
+    /**
+     * 指定されたファイルを解析したバージョン条件をキャッシュする。<p>
+     *
+     * @param file ファイル
+     * @param configKey バージョン条件の解析に影響する設定値から算出したキー
+     * @param lastModified 読み込む前に取得したファイルの最終更新日時
+     * @param length 読み込む前に取得したファイルのサイズ
+     * @param readTime ファイルを読み込む前の時刻
+     * @param fileConditions バージョン条件のリスト
+     */
+    public void putConditions(File file, String configKey, long lastModified, long length, long readTime, List<VersionCondition> fileConditions) {
+        put(
+            conditions,
+            configKey + File.pathSeparator + file.getAbsolutePath(),
+            lastModified,
+            length,
+            readTime,
+            Collections.unmodifiableList(fileConditions)
+        );
+    }
+    
+    /**
+     * キャッシュの利用状況を取得する。<p>
+     *
+     * @return キャッシュの利用状況を示す文字列
+     */
+    public String getStatistics() {
+        return "listing hits=" + listingHits.get() + " misses=" + listingMisses.get()
+            + " hash hits=" + hashHits.get() + " misses=" + hashMisses.get()
+            + " condition hits=" + conditionHits.get() + " misses=" + conditionMisses.get();
+    }
+    
+    private static <T> void put(ConcurrentMap<String, Stamped<T>> map, String key, long lastModified, long length, long readTime, T value) {
+        if (lastModified == 0L || isRacy(lastModified, readTime)) {
+            map.remove(key);
+        } else {
+            map.put(key, new Stamped<T>(lastModified, length, value));
+        }
+    }
+    
+    private static boolean isRacy(long lastModified, long time) {
+        return lastModified + RACY_INTERVAL >= time;
+    }
+    
+    private static class Listing {
+        
+        final File[] files;
+        
+        final Map<File, Long> visitedDirs;
+        
+        Listing(File[] files, Map<File, Long> visitedDirs) {
+            this.files = files;
+            this.visitedDirs = visitedDirs;
+        }
+        
+        boolean isValid() {
+            for (Map.Entry<File, Long> entry : visitedDirs.entrySet()) {
+                if (entry.getKey().lastModified() != entry.getValue().longValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    private static class Stamped<T> {
+        
+        final long lastModified;
+        
+        final long length;
+        
+        final T value;
+        
+        Stamped(long lastModified, long length, T value) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.value = value;
+        }
+        
+        boolean isValid(long lastModified, long length) {
+            return this.lastModified == lastModified && this.length == length;
+        }
+    }
+}
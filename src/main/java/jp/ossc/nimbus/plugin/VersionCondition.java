@@ -0,0 +1,214 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * バージョン条件。<p>
+ * "// 8 &lt;= JAVA_VERSION &lt; 11"のように、チェック対象文字列の前に下限、後ろに上限を記述した条件行を解析した、不変の述語である。<br>
+ * 下限と上限は、それぞれ数字と演算子"&lt;"、"&lt;="、"="で構成され、それ以外の文字は無視される。<br>
+ * 解析結果は、チェック対象文字列と条件行をキーとして共有のキャッシュに保持されるため、同じ条件行の解析は1度だけ行われる。<br>
+ */
+public final class VersionCondition implements Serializable {
+    
+    private static final long serialVersionUID = 3467094452157834180L;
+    
+    private static final int OPERATOR_NONE = 0;
+    
+    private static final int OPERATOR_LESS = 1;
+    
+    private static final int OPERATOR_LESS_EQUAL = 2;
+    
+    private static final int OPERATOR_EQUAL = 3;
+    
+    private static final int OPERATOR_UNKNOWN = 4;
+    
+    private static final int MAX_CACHE_SIZE = 10000;
+    
+    private static final ConcurrentMap<String, VersionCondition> CACHE = new ConcurrentHashMap<String, VersionCondition>();
+    
+    private final int lowerVersion;
+    
+    private final int lowerOperator;
+    
+    private final int upperVersion;
+    
+    private final int upperOperator;
+    
+    private VersionCondition(int lowerVersion, int lowerOperator, int upperVersion, int upperOperator) {
+        this.lowerVersion = lowerVersion;
+        this.lowerOperator = lowerOperator;
+        this.upperVersion = upperVersion;
+        this.upperOperator = upperOperator;
+    }
+    
+    /**
+     * 指定された条件行を解析したバージョン条件を取得する。<p>
+     * 同じチェック対象文字列と条件行の組み合わせが既に解析されている場合は、キャッシュされたバージョン条件を返す。<br>
+     *
+     * @param condition 条件行
+     * @param checkTarget チェック対象文字列
+     * @return バージョン条件
+     * @exception IllegalArgumentException 条件行が不正な場合
+     */
+    public static VersionCondition compile(String condition, String checkTarget) throws IllegalArgumentException {
+        final String key = checkTarget + '\n' + condition;
+        VersionCondition result = CACHE.get(key);
+        if (result == null) {
+            result = parse(condition, checkTarget);
+            if (CACHE.size() < MAX_CACHE_SIZE) {
+                CACHE.putIfAbsent(key, result);
+            }
+        }
+        return result;
+    }
+    
+    private static VersionCondition parse(String condition, String checkTarget) throws IllegalArgumentException {
+        final String[] conditions = condition.split(checkTarget);
+        if (conditions.length != 1 && conditions.length != 2) {
+            throw new IllegalArgumentException("Version condition is invalid. condition=" + condition);
+        }
+        final int lowerOperator = parseOperator(conditions[0]);
+        final int upperOperator = conditions.length == 2 ? parseOperator(conditions[1]) : OPERATOR_NONE;
+        if (lowerOperator == OPERATOR_NONE && upperOperator == OPERATOR_NONE) {
+            throw new IllegalArgumentException("Version condition is invalid. condition=" + condition);
+        }
+        return new VersionCondition(
+            lowerOperator == OPERATOR_NONE ? Integer.MIN_VALUE : parseVersion(conditions[0], condition),
+            lowerOperator,
+            upperOperator == OPERATOR_NONE ? Integer.MAX_VALUE : parseVersion(conditions[1], condition),
+            upperOperator
+        );
+    }
+    
+    private static int parseOperator(String bound) {
+        final StringBuilder csb = new StringBuilder();
+        boolean hasDigit = false;
+        for (int i = 0, imax = bound.length(); i < imax; i++) {
+            final char c = bound.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigit = true;
+            } else if (c == '<' || c == '=') {
+                csb.append(c);
+            }
+        }
+        if (!hasDigit || csb.length() == 0) {
+            return OPERATOR_NONE;
+        }
+        final String operator = csb.toString();
+        if ("<=".equals(operator)) {
+            return OPERATOR_LESS_EQUAL;
+        } else if ("<".equals(operator)) {
+            return OPERATOR_LESS;
+        } else if ("=".equals(operator)) {
+            return OPERATOR_EQUAL;
+        } else {
+            return OPERATOR_UNKNOWN;
+        }
+    }
+    
+    private static int parseVersion(String bound, String condition) throws IllegalArgumentException {
+        final StringBuilder nsb = new StringBuilder();
+        for (int i = 0, imax = bound.length(); i < imax; i++) {
+            final char c = bound.charAt(i);
+            if (c >= '0' && c <= '9') {
+                nsb.append(c);
+            }
+        }
+        try {
+            return Integer.parseInt(nsb.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Version condition is invalid. condition=" + condition);
+        }
+    }
+    
+    /**
+     * この条件の判定に影響する下限と上限のバージョンを、指定されたセットに追加する。<p>
+     * 判定結果は、対象バージョンと、追加したバージョンそれぞれとの大小関係だけで決まる。<br>
+     *
+     * @param bounds バージョンを追加するセット
+     */
+    public void addBounds(Set<String> bounds) {
+        if (isBound(lowerOperator)) {
+            bounds.add(String.valueOf(lowerVersion));
+        }
+        if (isBound(upperOperator)) {
+            bounds.add(String.valueOf(upperVersion));
+        }
+    }
+    
+    private static boolean isBound(int operator) {
+        return operator == OPERATOR_LESS || operator == OPERATOR_LESS_EQUAL || operator == OPERATOR_EQUAL;
+    }
+    
+    /**
+     * 指定されたバージョンがこの条件を満たすか判定する。<p>
+     * 演算子が"&lt;"、"&lt;="、"="のいずれでもない下限または上限は、判定に影響しない。<br>
+     *
+     * @param version バージョン
+     * @return 条件を満たす場合true
+     */
+    public boolean isSatisfied(int version) {
+        switch (lowerOperator) {
+        case OPERATOR_LESS_EQUAL:
+            if (!(lowerVersion <= version)) {
+                return false;
+            }
+            break;
+        case OPERATOR_LESS:
+            if (!(lowerVersion < version)) {
+                return false;
+            }
+            break;
+        case OPERATOR_EQUAL:
+            if (lowerVersion != version) {
+                return false;
+            }
+            break;
+        default:
+        }
+        switch (upperOperator) {
+        case OPERATOR_LESS_EQUAL:
+            return version <= upperVersion;
+        case OPERATOR_LESS:
+            return version < upperVersion;
+        case OPERATOR_EQUAL:
+            return version == upperVersion;
+        default:
+            return true;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * watch
+ *
+ * copy-replaceゴールを1回実行した後、ビルドが中断されるまで入力ディレクトリを監視し、作成、変更、削除された入力ファイルだけを再生成する。<p>
+ * copyゴールとreplaceゴールを組み合わせる構成は、replaceTargetDirsを指定して、置換対象ディレクトリ配下の入力ファイルにのみマーカーを適用する。<br>
+ * 置換対象ディレクトリは入力ディレクトリ配下に指定するため、入力ディレクトリ配下を全て監視する事で、置換対象ディレクトリの変更も検知する。<br>
+ * incrementalとpruneStaleOutputsを指定した場合は、再生成した結果をインデックスとマニフェストに記録する。<br>
+ *
+ * @goal watch
+ *
+ */
+public class WatchMojo extends CopyReplaceMojo {
+
+    /**
+     * @parameter default-value="200"
+     */
+    private long debounce = 200;
+
+    /**
+     * @parameter default-value="0"
+     */
+    private long watchTimeout;
+
+    /**
+     * Execute.
+     *
+     * @throws MojoExecutionException predictable error
+     * @throws MojoFailureException unpredictable error
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (debounce < 0) {
+            getLog().error("debounce is negative. debounce=" + debounce);
+            throw new MojoExecutionException("debounce is negative. debounce=" + debounce);
+        }
+        if (watchTimeout < 0) {
+            getLog().error("watchTimeout is negative. watchTimeout=" + watchTimeout);
+            throw new MojoExecutionException("watchTimeout is negative. watchTimeout=" + watchTimeout);
+        }
+        super.execute();
+        WatchService watchService = null;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+            register(watchService, getFromDir().toPath(), keys, null);
+            getLog().info("watch start. fromDir=" + getFromDir().getAbsolutePath() + " debounce=" + debounce + "ms");
+            watch(watchService, keys);
+            getLog().info("watch end.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            getLog().info("watch interrupted.");
+        } catch (Throwable th) {
+            getLog().error(th.getMessage());
+            throw new MojoFailureException("watch failed");
+        } finally {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+
+    private void watch(WatchService watchService, Map<WatchKey, Path> keys) throws Exception {
+        final long deadline = watchTimeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + watchTimeout;
+        // 変更されたパスは、一定時間イベントが途切れるまで溜めてからまとめて再生成する
+        Set<Path> pending = new LinkedHashSet<Path>();
+        boolean overflow = false;
+        while (true) {
+            WatchKey key = null;
+            if (!pending.isEmpty() || overflow) {
+                key = watchService.poll(debounce, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    // 1回分の再生成の失敗で監視を終了せず、ログに出力して次の変更を待つ
+                    try {
+                        if (overflow) {
+                            getLog().info("watch events are overflowed. all files are regenerated.");
+                            pending.clear();
+                            overflow = false;
+                            regenerateAll();
+                        } else {
+                            regenerateChanges(pending);
+                        }
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        getLog().error("watch regeneration failed. " + e.getMessage());
+                    } finally {
+                        pending.clear();
+                    }
+                    continue;
+                }
+            } else if (watchTimeout == 0) {
+                key = watchService.take();
+            } else {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+                key = watchService.poll(remaining, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+            }
+            Path dir = keys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                if (dir == null) {
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    // 新しいディレクトリは監視対象に加え、監視を開始する前に作られたファイルも再生成する
+                    register(watchService, path, keys, pending);
+                } else {
+                    pending.add(path);
+                }
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    private void regenerateChanges(Set<Path> paths) throws Exception {
+        final long start = System.nanoTime();
+        List<File> changedFiles = new ArrayList<File>();
+        int deleteCount = 0;
+        for (Path path : paths) {
+            File file = path.toFile();
+            if (!isTargetFile(file)) {
+                if (!file.exists()) {
+                    // 削除または移動されたディレクトリは、配下の入力ファイルの出力を削除する
+                    for (File deletedFile : deleteOutputsUnder(file)) {
+                        getLog().info("File delete file=" + deletedFile.getAbsolutePath());
+                        deleteCount++;
+                    }
+                }
+                continue;
+            }
+            if (file.isFile()) {
+                changedFiles.add(file);
+            } else if (!file.exists()) {
+                for (File deletedFile : deleteOutputs(file)) {
+                    getLog().info("File delete file=" + deletedFile.getAbsolutePath());
+                    deleteCount++;
+                }
+            }
+        }
+        if (changedFiles.isEmpty() && deleteCount == 0) {
+            return;
+        }
+        if (!changedFiles.isEmpty()) {
+            regenerate(changedFiles.toArray(new File[changedFiles.size()]));
+        }
+        getLog().info(
+            "watch regenerated. changed files=" + changedFiles.size()
+                + " deleted files=" + deleteCount
+                + " time=" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms"
+        );
+    }
+
+    private void register(final WatchService watchService, Path root, final Map<WatchKey, Path> keys, final Set<Path> pending) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+                );
+                keys.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (pending != null) {
+                    pending.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link ByteScanner}のテスト。<p>
+ * バイト列のまま検索、置換した結果が、文字にデコードして行毎に処理した結果と同じになる事を確認する。<br>
+ */
+public class ByteScannerTest {
+    
+    private static final String[] CHECK_VERSIONS = {"8", "11", "17", "21"};
+    
+    private static final String[] TARGET_VERSIONS = {"8", "17"};
+    
+    private static final String[] LINE_ENDS = {"\n", "\r\n", "\r"};
+    
+    // Shift_JISでは、"ァ"の2バイト目が'@'(0x40)、"ソ"と"表"の2バイト目が'\'(0x5C)になる
+    private static final String[] TEXTS = {
+        "value = 1; ", "@", "ァ", "ソ", "表", "能", "日本語 ", "JAVA_VERSION", "// 8 <= JAVA_VERSION < 17",
+        "ァSTART=JAVA17@", "ソ@START>=JAVA11@", "\\"
+    };
+    
+    @Test
+    public void testShiftJISTrailByte() throws Exception {
+        // "ァ"の2バイト目の'@'をマーカーの開始と誤認しない
+        final String text = "ァSTART=JAVA17@ a();\r\nソ/*@START=JAVA17@*/ b();";
+        for (String encoding : new String[] {"Shift_JIS", "windows-31j"}) {
+            final byte[] data = text.getBytes(encoding);
+            assertEquals(0x40, data[1] & 0xFF);
+            assertReplaceSameAsChar(data, encoding, "\n");
+            final String replaced = new String(replaceByByte(data, encoding, "\n", "8", null), encoding);
+            assertTrue(replaced.startsWith("ァSTART=JAVA17@ a();\nソ/*" + MarkerReplacer.REPLACE_START_STR));
+        }
+    }
+    
+    @Test
+    public void testShiftJISMalformedLeadByte() throws Exception {
+        // 第2バイトとして不正なバイトが続く第1バイトは、デコーダと同様に1バイトの不正な文字とし、行の終端を読み飛ばさない
+        for (String encoding : new String[] {"Shift_JIS", "windows-31j"}) {
+            for (String lineEnd : LINE_ENDS) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                out.write("a".getBytes(encoding));
+                out.write(0x81);
+                out.write(lineEnd.getBytes(encoding));
+                out.write("// JAVA_VERSION >= 8".getBytes(encoding));
+                out.write(0xE0);
+                out.write(lineEnd.getBytes(encoding));
+                out.write("/*@START<JAVA17@*/".getBytes(encoding));
+                out.write(0x9F);
+                final byte[] data = out.toByteArray();
+                assertFindLinesSameAsChar(data, encoding, 2);
+                assertFindMarkersSameAsChar(data, encoding);
+                // 不正なバイトはデコードすると置換文字になるため、デコードした結果で比較する
+                for (String version : TARGET_VERSIONS) {
+                    final MarkerReplacer replacer = new MarkerReplacer(version, CHECK_VERSIONS, "JAVA");
+                    final StringBuilder expected = new StringBuilder();
+                    final BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), encoding));
+                    String line = null;
+                    while ((line = br.readLine()) != null) {
+                        expected.append(replacer.replace(line)).append('\n');
+                    }
+                    assertEquals(expected.toString(), new String(replaceByByte(data, encoding, "\n", version, null), encoding));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testLineEnds() throws Exception {
+        for (String encoding : new String[] {"UTF-8", "windows-31j"}) {
+            for (String lineSeparator : new String[] {"\n", "\r\n"}) {
+                assertReplaceSameAsChar("a\r\nb\nc\rd".getBytes(encoding), encoding, lineSeparator);
+                assertReplaceSameAsChar("a\r\n/*@START<JAVA11@*/\r\n\r\n".getBytes(encoding), encoding, lineSeparator);
+                assertReplaceSameAsChar("no final newline /*@END=JAVA8@*/".getBytes(encoding), encoding, lineSeparator);
+                assertReplaceSameAsChar("\r".getBytes(encoding), encoding, lineSeparator);
+                assertReplaceSameAsChar(new byte[0], encoding, lineSeparator);
+            }
+        }
+        assertArrayEquals(
+            "a\r\nb\r\n".getBytes("UTF-8"),
+            replaceByByte("a\nb".getBytes("UTF-8"), "UTF-8", "\r\n", "8", null)
+        );
+    }
+    
+    @Test
+    public void testRandomSameAsChar() throws Exception {
+        final Random random = new Random(1);
+        for (String encoding : new String[] {"UTF-8", "Shift_JIS", "windows-31j"}) {
+            for (int i = 0; i < 300; i++) {
+                final byte[] data = randomText(random).getBytes(encoding);
+                assertReplaceSameAsChar(data, encoding, "\n");
+                assertFindLinesSameAsChar(data, encoding, random.nextInt(4));
+                assertFindMarkersSameAsChar(data, encoding);
+            }
+        }
+    }
+    
+    @Test
+    public void testIsSupported() {
+        assertTrue(ByteScanner.isSupported("UTF-8"));
+        assertTrue(ByteScanner.isSupported("Windows-31J"));
+        assertTrue(ByteScanner.isSupported("MS932"));
+        assertFalse(ByteScanner.isSupported("UTF-16"));
+        assertFalse(ByteScanner.isSupported("EUC-JP"));
+        assertFalse(ByteScanner.isSupported("unknown-encoding"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrefixNotLiteral() {
+        new ByteScanner("UTF-8", CHECK_VERSIONS, "JAVA.*");
+    }
+    
+    private static String randomText(Random random) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(8); i >= 0; i--) {
+            final int type = random.nextInt(4);
+            if (type == 0) {
+                sb.append(LINE_ENDS[random.nextInt(LINE_ENDS.length)]);
+            } else if (type == 1) {
+                sb.append(MarkerReplacerTest.randomLine(random));
+            } else {
+                sb.append(TEXTS[random.nextInt(TEXTS.length)]);
+            }
+        }
+        return sb.toString();
+    }
+    
+    private static void assertReplaceSameAsChar(byte[] data, String encoding, String lineSeparator) throws Exception {
+        for (String version : TARGET_VERSIONS) {
+            final MarkerReplacer replacer = new MarkerReplacer(version, CHECK_VERSIONS, "JAVA");
+            final Set<String> expectedReferences = new HashSet<String>();
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            final BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), encoding));
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                expected.write((replacer.replace(line, expectedReferences) + lineSeparator).getBytes(encoding));
+            }
+            final Set<String> references = new HashSet<String>();
+            final byte[] actual = replaceByByte(data, encoding, lineSeparator, version, references);
+            assertEquals(new String(data, encoding), new String(expected.toByteArray(), encoding), new String(actual, encoding));
+            assertArrayEquals(expected.toByteArray(), actual);
+            assertEquals(expectedReferences, references);
+        }
+    }
+    
+    private static byte[] replaceByByte(byte[] data, String encoding, String lineSeparator, String version, Set<String> references) throws Exception {
+        final ByteScanner scanner = new ByteScanner(encoding, CHECK_VERSIONS, "JAVA");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        scanner.replace(
+            ByteBuffer.wrap(data),
+            new byte[][][] {scanner.createReplacements(new MarkerReplacer(version, CHECK_VERSIONS, "JAVA"))},
+            new OutputStream[] {out},
+            lineSeparator,
+            references
+        );
+        return out.toByteArray();
+    }
+    
+    private static void assertFindLinesSameAsChar(byte[] data, String encoding, int lineLimit) throws Exception {
+        final List<String> expected = new ArrayList<String>();
+        final BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), encoding));
+        String line = null;
+        int lineCount = 0;
+        while ((line = br.readLine()) != null) {
+            if (lineLimit > 0 && ++lineCount > lineLimit) {
+                break;
+            }
+            if (line.indexOf("JAVA_VERSION") != -1) {
+                expected.add(line);
+            }
+        }
+        assertEquals(expected, new ByteScanner(encoding).findLines(ByteBuffer.wrap(data), "JAVA_VERSION", lineLimit));
+    }
+    
+    private static void assertFindMarkersSameAsChar(byte[] data, String encoding) throws Exception {
+        final MarkerReplacer replacer = new MarkerReplacer("17", CHECK_VERSIONS, "JAVA");
+        final List<String> expectedMarkers = new ArrayList<String>();
+        final List<Integer> expectedLineNumbers = new ArrayList<Integer>();
+        final BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), encoding));
+        String line = null;
+        int lineNumber = 0;
+        while ((line = br.readLine()) != null) {
+            lineNumber++;
+            final int size = expectedMarkers.size();
+            replacer.findMarkers(line, expectedMarkers);
+            for (int i = size; i < expectedMarkers.size(); i++) {
+                expectedLineNumbers.add(lineNumber);
+            }
+        }
+        final List<String> markers = new ArrayList<String>();
+        final List<Integer> lineNumbers = new ArrayList<Integer>();
+        new ByteScanner(encoding, CHECK_VERSIONS, "JAVA").findMarkers(ByteBuffer.wrap(data), markers, lineNumbers);
+        assertEquals(expectedMarkers, markers);
+        assertEquals(expectedLineNumbers, lineNumbers);
+    }
+}
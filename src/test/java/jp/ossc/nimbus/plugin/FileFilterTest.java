@@ -0,0 +1,98 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * {@link FileFilter}のテスト。<p>
+ * 文字列操作で判定する場合も、正規表現で判定した結果と同じになる事を確認する。<br>
+ */
+public class FileFilterTest {
+    
+    private static final String[] REGEX_ATOMS = {
+        "a", "b", ".", ".*", "\\.", "x", "\\*", "😀", ".+", ".?", "\n", "java16", "[ab]", "\\d"
+    };
+    
+    private static final String[] NAME_ATOMS = {
+        "a", "b", ".", "x", "*", "\n", "\r", " ", "😀", "\uD83D", "java16", "1"
+    };
+    
+    @Test
+    public void testGoalPattern() {
+        final FileFilter filter = new FileFilter(".*.java16");
+        assertTrue(filter.accept(null, "Sample.java16"));
+        assertTrue(filter.accept(null, ".java16"));
+        assertTrue(filter.accept(null, "Samplexjava16"));
+        assertFalse(filter.accept(null, "java16"));
+        assertFalse(filter.accept(null, "Sample.java"));
+        assertFalse(filter.accept(null, "Sample\n.java16"));
+        assertFalse(filter.accept(null, "Sample\njava16"));
+        assertTrue(filter.accept(null, "😀java16"));
+    }
+    
+    @Test
+    public void testNoPattern() {
+        assertFalse(new FileFilter().accept(null, "a"));
+    }
+    
+    @Test
+    public void testSameAsPattern() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder regex = new StringBuilder();
+            for (int j = random.nextInt(5); j >= 0; j--) {
+                regex.append(REGEX_ATOMS[random.nextInt(REGEX_ATOMS.length)]);
+            }
+            final FileFilter filter = new FileFilter(regex.toString());
+            final Pattern pattern = Pattern.compile(regex.toString());
+            for (int j = 0; j < 30; j++) {
+                final StringBuilder name = new StringBuilder();
+                for (int k = random.nextInt(6); k > 0; k--) {
+                    name.append(NAME_ATOMS[random.nextInt(NAME_ATOMS.length)]);
+                }
+                assertEquals(
+                    regex + " " + name,
+                    pattern.matcher(name).matches(),
+                    filter.accept(null, name.toString())
+                );
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * {@link FileTaskExecutor}のテスト。<p>
+ */
+public class FileTaskExecutorTest {
+    
+    @Test
+    public void testHandledInOrder() throws Exception {
+        final File[] files = createFiles(200);
+        final Random random = new Random(1);
+        final long[] sleeps = new long[files.length];
+        for (int i = 0; i < sleeps.length; i++) {
+            sleeps[i] = random.nextInt(3);
+        }
+        final List<File> handled = new ArrayList<File>();
+        new FileTaskExecutor(4).execute(
+            files,
+            new FileTaskExecutor.Task<String>() {
+                public String execute(File file, List<String> messages) throws Exception {
+                    Thread.sleep(sleeps[indexOf(file)]);
+                    messages.add("message " + file.getName());
+                    return file.getName();
+                }
+            },
+            new FileTaskExecutor.Handler<String>() {
+                public void handle(File file, String result, List<String> messages) {
+                    assertEquals(file.getName(), result);
+                    assertEquals(Collections.singletonList("message " + file.getName()), messages);
+                    handled.add(file);
+                }
+            }
+        );
+        assertEquals(toList(files), handled);
+    }
+    
+    @Test
+    public void testSingleThread() throws Exception {
+        final File[] files = createFiles(10);
+        final Thread caller = Thread.currentThread();
+        final List<File> handled = new ArrayList<File>();
+        new FileTaskExecutor(1).execute(
+            files,
+            new FileTaskExecutor.Task<Thread>() {
+                public Thread execute(File file, List<String> messages) {
+                    return Thread.currentThread();
+                }
+            },
+            new FileTaskExecutor.Handler<Thread>() {
+                public void handle(File file, Thread result, List<String> messages) {
+                    assertSame(caller, result);
+                    handled.add(file);
+                }
+            }
+        );
+        assertEquals(toList(files), handled);
+    }
+    
+    @Test
+    public void testTaskFailure() throws Exception {
+        final File[] files = createFiles(100);
+        final IOException failure = new IOException("failed");
+        final AtomicInteger running = new AtomicInteger();
+        final List<File> handled = new ArrayList<File>();
+        try {
+            new FileTaskExecutor(4).execute(
+                files,
+                new FileTaskExecutor.Task<Object>() {
+                    public Object execute(File file, List<String> messages) throws Exception {
+                        running.incrementAndGet();
+                        try {
+                            if (indexOf(file) == 50) {
+                                throw failure;
+                            }
+                            sleepUninterruptibly(5);
+                            return file;
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                    }
+                },
+                new FileTaskExecutor.Handler<Object>() {
+                    public void handle(File file, Object result, List<String> messages) {
+                        handled.add(file);
+                    }
+                }
+            );
+            fail();
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        // 例外をスローする前に、実行中の処理の終了を待つ
+        assertEquals(0, running.get());
+        // 失敗したファイルより後の結果は渡されない
+        assertEquals(toList(files).subList(0, handled.size()), handled);
+        assertEquals(true, handled.size() <= 50);
+    }
+    
+    @Test
+    public void testHandlerFailure() throws Exception {
+        final File[] files = createFiles(100);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger executed = new AtomicInteger();
+        try {
+            new FileTaskExecutor(4).execute(
+                files,
+                new FileTaskExecutor.Task<Object>() {
+                    public Object execute(File file, List<String> messages) {
+                        running.incrementAndGet();
+                        executed.incrementAndGet();
+                        sleepUninterruptibly(5);
+                        running.decrementAndGet();
+                        return file;
+                    }
+                },
+                new FileTaskExecutor.Handler<Object>() {
+                    public void handle(File file, Object result, List<String> messages) {
+                        if (indexOf(file) == 10) {
+                            throw new IllegalStateException("handler failed");
+                        }
+                    }
+                }
+            );
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("handler failed", e.getMessage());
+        }
+        assertEquals(0, running.get());
+        // 未着手のファイルの処理は中止される
+        assertEquals(true, executed.get() < files.length);
+    }
+    
+    private static File[] createFiles(int count) {
+        final File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = new File("file" + i);
+        }
+        return files;
+    }
+    
+    private static int indexOf(File file) {
+        return Integer.parseInt(file.getName().substring("file".length()));
+    }
+    
+    private static List<File> toList(File[] files) {
+        final List<File> list = new ArrayList<File>();
+        Collections.addAll(list, files);
+        return list;
+    }
+    
+    private static void sleepUninterruptibly(long millis) {
+        final long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (remaining > 0) {
+            try {
+                Thread.sleep(remaining);
+            } catch (InterruptedException e) {
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+}
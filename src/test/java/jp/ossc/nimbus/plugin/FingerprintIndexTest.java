@@ -0,0 +1,232 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link FingerprintIndex}のテスト。<p>
+ */
+public class FingerprintIndexTest {
+    
+    private static final long TIME = 1500000000000L;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File indexFile;
+    
+    private File source;
+    
+    private File output;
+    
+    @Before
+    public void setUp() throws Exception {
+        indexFile = new File(folder.getRoot(), "target/copy.index");
+        source = folder.newFile("A.java16");
+        output = folder.newFile("A.java");
+        write(source, "class A {}", TIME);
+    }
+    
+    @Test
+    public void testUnchanged() throws Exception {
+        store("17", source);
+        final FingerprintIndex index = load("17");
+        assertTrue(index.isUpToDate(source));
+        assertEquals(Arrays.asList(output), index.getOutputs(source));
+    }
+    
+    @Test
+    public void testContentChanged() throws Exception {
+        store("17", source);
+        write(source, "class A { int a; }", TIME + 1000L);
+        assertFalse(load("17").isUpToDate(source));
+    }
+    
+    @Test
+    public void testTouchedOnly() throws Exception {
+        // 最終更新日時のみが変わった場合は、ハッシュ値で変更なしと判定する
+        store("17", source);
+        source.setLastModified(TIME + 1000L);
+        final FingerprintIndex index = load("17");
+        assertTrue(index.isUpToDate(source));
+        index.store();
+        assertTrue(load("17").isUpToDate(source));
+    }
+    
+    @Test
+    public void testEditedWhileProcessing() throws Exception {
+        // 読み込んだ後、記録する前に変更された場合は、変更後の状態を処理済みとして記録しない
+        final FingerprintIndex index = load("17");
+        final FingerprintIndex.Fingerprint fingerprint = new FingerprintIndex.Fingerprint(source);
+        fingerprint.setHash(FingerprintIndex.hash(FileUtility.dataRead(source)));
+        write(source, "class A { int b; }", TIME + 1000L);
+        index.update(source, fingerprint, Arrays.asList(output), null);
+        index.store();
+        assertFalse(load("17").isUpToDate(source));
+    }
+    
+    @Test
+    public void testUnknownHash() throws Exception {
+        final FingerprintIndex index = load("17");
+        index.update(source, new FingerprintIndex.Fingerprint(source), Arrays.asList(output), null);
+        index.store();
+        assertTrue(load("17").isUpToDate(source));
+        
+        // 処理した内容のハッシュ値がない場合は、最終更新日時が変われば再処理する
+        source.setLastModified(TIME + 1000L);
+        assertFalse(load("17").isUpToDate(source));
+    }
+    
+    @Test
+    public void testOutputDeleted() throws Exception {
+        store("17", source);
+        output.delete();
+        assertFalse(load("17").isUpToDate(source));
+    }
+    
+    @Test
+    public void testConfigChanged() throws Exception {
+        store("17", source);
+        final FingerprintIndex index = new FingerprintIndex(indexFile, "other", "17");
+        assertFalse(index.load());
+        assertFalse(index.isUpToDate(source));
+    }
+    
+    @Test
+    public void testNotRecorded() throws Exception {
+        store("17", source);
+        final File other = folder.newFile("B.java16");
+        final FingerprintIndex index = load("17");
+        assertFalse(index.isUpToDate(other));
+        assertEquals(Collections.<File>emptyList(), index.getOutputs(other));
+    }
+    
+    @Test
+    public void testVersionChangedUnaffected() throws Exception {
+        // 比較バージョンとの大小関係が変わらない場合は、対象バージョンが変わっても変更なしと判定する
+        store("17", source, references("11", "21"));
+        final FingerprintIndex index = load("18");
+        assertTrue(index.isUpToDate(source));
+        assertEquals(1, index.getVersionSkipCount());
+        index.store();
+        
+        // 引き継いだ記録は、今回の対象バージョンで記録される
+        final FingerprintIndex next = load("18");
+        assertTrue(next.isUpToDate(source));
+        assertEquals(0, next.getVersionSkipCount());
+    }
+    
+    @Test
+    public void testVersionChangedAffected() throws Exception {
+        store("17", source, references("11", "21"));
+        assertFalse(load("21").isUpToDate(source));
+        assertFalse(load("8").isUpToDate(source));
+        assertFalse(load("11").isUpToDate(source));
+    }
+    
+    @Test
+    public void testVersionChangedWithoutReferences() throws Exception {
+        // 比較バージョンが記録されていない場合は、対象バージョンが変われば再処理する
+        store("17", source, null);
+        final FingerprintIndex index = load("18");
+        assertFalse(index.isUpToDate(source));
+        assertEquals(0, index.getVersionSkipCount());
+        
+        store("17", source, references("*"));
+        assertFalse(load("18").isUpToDate(source));
+    }
+    
+    @Test
+    public void testVersionChangedNoReference() throws Exception {
+        // 比較バージョンを含まない入力ファイルは、対象バージョンに依存しない
+        store("17", source, references());
+        assertTrue(load("8").isUpToDate(source));
+    }
+    
+    @Test
+    public void testVersionsChanged() throws Exception {
+        store(FingerprintIndex.join(new String[] {"8", "17"}), source, references("11"));
+        assertTrue(load(FingerprintIndex.join(new String[] {"9", "21"})).isUpToDate(source));
+        assertFalse(load(FingerprintIndex.join(new String[] {"11", "21"})).isUpToDate(source));
+        assertFalse(load(FingerprintIndex.join(new String[] {"8", "17", "21"})).isUpToDate(source));
+    }
+    
+    @Test
+    public void testVersionChangedContentChanged() throws Exception {
+        store("17", source, references("11"));
+        write(source, "class A { int a; }", TIME + 1000L);
+        final FingerprintIndex index = load("18");
+        assertFalse(index.isUpToDate(source));
+        assertEquals(0, index.getVersionSkipCount());
+    }
+    
+    private void store(String version, File file) throws Exception {
+        store(version, file, null);
+    }
+    
+    private void store(String version, File file, Set<String> references) throws Exception {
+        final FingerprintIndex index = load(version);
+        final FingerprintIndex.Fingerprint fingerprint = new FingerprintIndex.Fingerprint(file);
+        fingerprint.setHash(FingerprintIndex.hash(FileUtility.dataRead(file)));
+        index.update(file, fingerprint, Arrays.asList(output), references);
+        index.store();
+    }
+    
+    private FingerprintIndex load(String version) throws Exception {
+        final FingerprintIndex index = new FingerprintIndex(indexFile, "config", version);
+        index.load();
+        return index;
+    }
+    
+    private static Set<String> references(String... versions) {
+        return new HashSet<String>(Arrays.asList(versions));
+    }
+    
+    private static void write(File file, String content, long lastModified) throws Exception {
+        FileUtility.dataWrite(content.getBytes("UTF-8"), file);
+        file.setLastModified(lastModified);
+    }
+}
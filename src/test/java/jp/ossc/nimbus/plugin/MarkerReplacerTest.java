@@ -0,0 +1,130 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link MarkerReplacer}のテスト。<p>
+ * 1回の走査で置換する方式が、従来の置換方式と同じ結果になる事を確認する。<br>
+ */
+public class MarkerReplacerTest {
+    
+    private static final String[] CHECK_VERSIONS = {"8", "11", "17", "21"};
+    
+    private static final String[] OPERATORS = {"=", ">", ">=", "<", "<="};
+    
+    @Test
+    public void testReplace() {
+        final MarkerReplacer replacer = new MarkerReplacer("17", CHECK_VERSIONS, "JAVA");
+        assertEquals(
+            "/**/ a(); /**/",
+            replacer.replace("/*@START>=JAVA17@*/ a(); /*@END>=JAVA17@*/")
+        );
+        assertEquals(
+            "/*" + MarkerReplacer.REPLACE_START_STR + "*/ a(); /*" + MarkerReplacer.REPLACE_END_STR + "*/",
+            replacer.replace("/*@START<JAVA17@*/ a(); /*@END<JAVA17@*/")
+        );
+        assertEquals("/*@START<JAVA9@*/", replacer.replace("/*@START<JAVA9@*/"));
+        assertEquals("@START<=JAVA@", replacer.replace("@START<=JAVA@"));
+    }
+    
+    @Test
+    public void testReplaceSameAsLegacy() {
+        final Random random = new Random(1);
+        for (String version : new String[] {"7", "8", "11", "16", "17", "21", "25"}) {
+            final MarkerReplacer singlePass = new MarkerReplacer(version, CHECK_VERSIONS, "JAVA", MarkerReplacer.MODE_SINGLE_PASS);
+            final MarkerReplacer legacy = new MarkerReplacer(version, CHECK_VERSIONS, "JAVA", MarkerReplacer.MODE_LEGACY);
+            for (int i = 0; i < 2000; i++) {
+                final String line = randomLine(random);
+                assertEquals(line, legacy.replace(line), singlePass.replace(line));
+            }
+        }
+    }
+    
+    @Test
+    public void testReferences() {
+        final MarkerReplacer replacer = new MarkerReplacer("17", CHECK_VERSIONS, "JAVA");
+        final Set<String> references = new HashSet<String>();
+        replacer.replace("/*@START<JAVA11@*/ a(); /*@END<JAVA11@*/ /*@START=JAVA21@*/", references);
+        replacer.replace("@START<JAVA9@ b();", references);
+        assertEquals(new HashSet<String>(Arrays.asList("11", "21")), references);
+        
+        final MarkerReplacer legacy = new MarkerReplacer("17", CHECK_VERSIONS, "JAVA", MarkerReplacer.MODE_LEGACY);
+        references.clear();
+        legacy.replace("no marker", references);
+        assertEquals(0, references.size());
+        legacy.replace("/*@START<JAVA11@*/", references);
+        assertEquals(new HashSet<String>(Arrays.asList(CHECK_VERSIONS)), references);
+    }
+    
+    @Test
+    public void testFindMarkers() {
+        final MarkerReplacer replacer = new MarkerReplacer("17", CHECK_VERSIONS, "JAVA");
+        final List<String> markers = new ArrayList<String>();
+        replacer.findMarkers("/*@START<=JAVA8@*/ a(); /*@END<=JAVA8@*/ @START>JAVA9@", markers);
+        assertEquals(Arrays.asList("START<=8", "END<=8"), markers);
+    }
+    
+    static String randomLine(Random random) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(6); i >= 0; i--) {
+            switch (random.nextInt(5)) {
+            case 0:
+                sb.append("value = compute(value); ");
+                break;
+            case 1:
+                sb.append('@');
+                break;
+            case 2:
+                sb.append("@START").append(OPERATORS[random.nextInt(OPERATORS.length)]).append("JAVA");
+                break;
+            default:
+                sb.append("/*@").append(random.nextBoolean() ? "START" : "END")
+                    .append(OPERATORS[random.nextInt(OPERATORS.length)])
+                    .append("JAVA")
+                    .append(random.nextInt(4) == 0 ? "9" : CHECK_VERSIONS[random.nextInt(CHECK_VERSIONS.length)])
+                    .append("@*/");
+            }
+        }
+        return sb.toString();
+    }
+}
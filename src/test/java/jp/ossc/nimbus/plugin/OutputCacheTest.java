@@ -0,0 +1,211 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link OutputCache}のテスト。<p>
+ */
+public class OutputCacheTest {
+    
+    private static final long TIME = 1500000000000L;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File cacheDir;
+    
+    private File output;
+    
+    private File toFile;
+    
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = new File(folder.getRoot(), "cache");
+        output = new File(folder.newFolder("out1"), "A.java");
+        toFile = new File(folder.newFolder("out2"), "A.java");
+        write(output, "class A {}", TIME);
+    }
+    
+    @Test
+    public void testRestore() throws Exception {
+        final OutputCache cache = new OutputCache(cacheDir, 1024L * 1024L, false);
+        final String key = OutputCache.createKey("hash", "17");
+        assertNull(cache.restore(key, toFile));
+        cache.put(key, output);
+        assertTrue(cache.isStored());
+        final File tmpFile = cache.restore(key, toFile);
+        assertNotNull(tmpFile);
+        assertEquals(toFile.getParentFile(), tmpFile.getParentFile());
+        assertArrayEquals(FileUtility.dataRead(output), FileUtility.dataRead(tmpFile));
+        assertNull(cache.restore(OutputCache.createKey("hash", "8"), toFile));
+        assertEquals("hits=1 misses=2 stored=1", cache.getStatistics());
+    }
+    
+    @Test
+    public void testCreateKey() {
+        assertEquals(OutputCache.createKey("hash", "17", Boolean.TRUE), OutputCache.createKey("hash", "17", Boolean.TRUE));
+        assertFalse(OutputCache.createKey("hash", "17").equals(OutputCache.createKey("hash", "8")));
+        assertFalse(OutputCache.createKey("hash", "17").equals(OutputCache.createKey("hash2", "17")));
+    }
+    
+    @Test
+    public void testNone() throws Exception {
+        final OutputCache cache = new OutputCache(cacheDir, 1024L * 1024L, false);
+        final String key = OutputCache.createKey("hash", "17");
+        assertFalse(cache.isNone(key));
+        cache.putNone(key);
+        assertTrue(cache.isNone(key));
+        // 出力ファイルを生成しない事を示すエントリからは、出力ファイルを復元しない
+        assertNull(cache.restore(key, toFile));
+        assertFalse(cache.isNone(OutputCache.createKey("hash", "8")));
+    }
+    
+    @Test
+    public void testRestoreByCopy() throws Exception {
+        assertRestoredAsNewFile(false);
+    }
+    
+    @Test
+    public void testRestoreByCopyWithLink() throws Exception {
+        // ハードリンクで格納する場合も、復元した出力ファイルはエントリと別のファイルで、最終更新日時は復元した時刻になる
+        assertRestoredAsNewFile(true);
+    }
+    
+    @Test
+    public void testPutByLink() throws Exception {
+        assumeTrue(Files.getFileStore(output.toPath()).supportsFileAttributeView("unix"));
+        new OutputCache(cacheDir, 1024L * 1024L, true).put(OutputCache.createKey("hash", "17"), output);
+        assertEquals(2, ((Number) Files.getAttribute(output.toPath(), "unix:nlink")).intValue());
+        
+        final File copied = toFile(folder.newFile("B.java"), "class B {}");
+        new OutputCache(cacheDir, 1024L * 1024L, false).put(OutputCache.createKey("hash", "8"), copied);
+        assertEquals(1, ((Number) Files.getAttribute(copied.toPath(), "unix:nlink")).intValue());
+    }
+    
+    @Test
+    public void testEvict() throws Exception {
+        assertEvictLeastRecentlyUsed(false);
+    }
+    
+    @Test
+    public void testEvictWithLink() throws Exception {
+        // ハードリンクの場合は、アクセスファイルの最終更新日時で順序を決める
+        assertEvictLeastRecentlyUsed(true);
+    }
+    
+    @Test
+    public void testEvictUnderMaxSize() throws Exception {
+        final OutputCache cache = new OutputCache(cacheDir, 1024L * 1024L, false);
+        cache.put(OutputCache.createKey("hash", "17"), output);
+        assertEquals(0, cache.evict());
+        assertEquals(0, new OutputCache(new File(folder.getRoot(), "empty"), 1L, false).evict());
+    }
+    
+    private void assertRestoredAsNewFile(boolean isLink) throws Exception {
+        final OutputCache cache = new OutputCache(cacheDir, 1024L * 1024L, isLink);
+        final String key = OutputCache.createKey("hash", "17");
+        cache.put(key, output);
+        final long start = System.currentTimeMillis();
+        final File tmpFile = cache.restore(key, toFile);
+        assertFalse(Files.isSameFile(output.toPath(), tmpFile.toPath()));
+        assertFalse(Files.isSameFile(getEntry(key).toPath(), tmpFile.toPath()));
+        assertTrue(tmpFile.lastModified() + 1000L >= start);
+        assertEquals(TIME, output.lastModified());
+    }
+    
+    private void assertEvictLeastRecentlyUsed(boolean isLink) throws Exception {
+        // エントリ毎に、内容の1000バイトと管理用の256バイトを消費するとみなす
+        final OutputCache cache = new OutputCache(cacheDir, 4000L, isLink);
+        final char[] content = new char[1000];
+        Arrays.fill(content, 'a');
+        final String[] keys = new String[4];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = OutputCache.createKey("hash" + i, "17");
+            cache.put(keys[i], toFile(folder.newFile("A" + i + ".java"), new String(content)));
+            setAccessTime(keys[i], TIME + i * 1000L, isLink);
+        }
+        // 最も古いエントリを復元すると、最も新しいエントリとなる
+        assertNotNull(cache.restore(keys[0], toFile));
+        
+        // 合計5024バイトを、上限の9割の3600バイト以下になるまで古い順に削除する
+        assertEquals(2, cache.evict());
+        assertNotNull(cache.restore(keys[0], toFile));
+        assertNull(cache.restore(keys[1], toFile));
+        assertNull(cache.restore(keys[2], toFile));
+        assertNotNull(cache.restore(keys[3], toFile));
+        if (isLink) {
+            assertFalse(new File(getEntry(keys[1]).getPath() + OutputCache.ACCESS_SUFFIX).exists());
+        }
+    }
+    
+    private void setAccessTime(String key, long time, boolean isLink) {
+        final File entry = getEntry(key);
+        if (isLink) {
+            final File accessFile = new File(entry.getPath() + OutputCache.ACCESS_SUFFIX);
+            assertTrue(accessFile.exists());
+            accessFile.setLastModified(time);
+        } else {
+            entry.setLastModified(time);
+        }
+    }
+    
+    private File getEntry(String key) {
+        return new File(new File(new File(cacheDir, "v1"), key.substring(0, 2)), key);
+    }
+    
+    private static File toFile(File file, String content) throws Exception {
+        write(file, content, TIME);
+        return file;
+    }
+    
+    private static void write(File file, String content, long lastModified) throws Exception {
+        FileUtility.dataWrite(content.getBytes("UTF-8"), file);
+        file.setLastModified(lastModified);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link OutputManifest}のテスト。<p>
+ */
+public class OutputManifestTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File manifestFile;
+    
+    private File sourceA;
+    
+    private File sourceB;
+    
+    private File outputA8;
+    
+    private File outputA17;
+    
+    private File outputB8;
+    
+    @Before
+    public void setUp() throws Exception {
+        manifestFile = new File(folder.getRoot(), "target/copy.manifest");
+        sourceA = folder.newFile("A.java16");
+        sourceB = folder.newFile("B.java16");
+        outputA8 = folder.newFile("A8.java");
+        outputA17 = folder.newFile("A17.java");
+        outputB8 = folder.newFile("B8.java");
+        final OutputManifest manifest = new OutputManifest(manifestFile);
+        assertFalse(manifest.load());
+        manifest.put(sourceA, Arrays.asList(outputA8, outputA17));
+        manifest.put(sourceB, Arrays.asList(outputB8));
+        assertEquals(0, manifest.prune().size());
+        manifest.store();
+    }
+    
+    @Test
+    public void testPruneUnmatchedOutput() throws Exception {
+        final OutputManifest manifest = load();
+        manifest.put(sourceA, Arrays.asList(outputA8));
+        manifest.retain(sourceB);
+        assertEquals(Arrays.asList(outputA17), manifest.prune());
+        assertFalse(outputA17.exists());
+        assertTrue(outputA8.exists());
+        assertTrue(outputB8.exists());
+    }
+    
+    @Test
+    public void testRetainKeepsOutputs() throws Exception {
+        final OutputManifest manifest = load();
+        manifest.retain(sourceA);
+        manifest.retain(sourceB);
+        assertEquals(0, manifest.prune().size());
+        manifest.store();
+        
+        // 引き継いだ記録も書き込まれ、次回の削除の対象になる
+        final OutputManifest next = load();
+        next.retain(sourceA);
+        assertEquals(Arrays.asList(outputB8), next.prune());
+    }
+    
+    @Test
+    public void testRetainAfterPut() throws Exception {
+        final OutputManifest manifest = load();
+        manifest.put(sourceA, Collections.<File>emptyList());
+        manifest.retain(sourceA);
+        manifest.retain(sourceB);
+        final List<File> deleted = manifest.prune();
+        assertEquals(2, deleted.size());
+        assertTrue(deleted.containsAll(Arrays.asList(outputA8, outputA17)));
+    }
+    
+    @Test
+    public void testPruneRemovedSource() throws Exception {
+        final OutputManifest manifest = load();
+        manifest.retain(sourceA);
+        manifest.retain(sourceB);
+        manifest.remove(sourceB);
+        assertEquals(Arrays.asList(outputB8), manifest.prune());
+    }
+    
+    @Test
+    public void testNeverDeleteCurrentSource() throws Exception {
+        // 出力先と入力元が重なる設定で、前回の出力が今回の入力ファイルになっている場合
+        final OutputManifest manifest = load();
+        manifest.retain(sourceA);
+        manifest.retain(outputB8);
+        assertEquals(0, manifest.prune().size());
+        assertTrue(outputB8.exists());
+    }
+    
+    @Test
+    public void testRetainUnknownSource() throws Exception {
+        final OutputManifest manifest = load();
+        final File sourceC = folder.newFile("C.java16");
+        manifest.retain(sourceA);
+        manifest.retain(sourceB);
+        manifest.retain(sourceC);
+        assertEquals(0, manifest.prune().size());
+    }
+    
+    private OutputManifest load() throws Exception {
+        final OutputManifest manifest = new OutputManifest(manifestFile);
+        assertTrue(manifest.load());
+        return manifest;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link PathPattern}のテスト。<p>
+ * "**"を含むパスの正規表現の検索結果が、従来の幅優先のディレクトリ走査と同じ順序になる事を確認する。<br>
+ */
+public class PathPatternTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File root;
+    
+    @Before
+    public void setUp() throws Exception {
+        root = folder.getRoot();
+        final Random random = new Random(10);
+        createTree(root, random, 0);
+        file("src/jp/A.java16");
+        file("src/jp/sub/B.java16");
+        file("src/jp/sub/C.java");
+        file("src/org/D.java16");
+        file("src/org/jp/E.java16");
+    }
+    
+    @Test
+    public void testSameAsBreadthFirst() throws Exception {
+        final String[] regexes = {".*\\.java16", ".*", "f1.*", "d.*"};
+        for (String regex : regexes) {
+            final List<String> expected = breadthFirst(root, regex, FileUtility.SEARCH_TYPE_FILE);
+            assertEquals(regex, expected, list("**/" + regex, FileUtility.SEARCH_TYPE_FILE, 1));
+            assertEquals(regex, expected, list("**/" + regex, FileUtility.SEARCH_TYPE_FILE, 4));
+            
+            final List<String> expectedDirs = breadthFirst(root, regex, FileUtility.SEARCH_TYPE_DIR);
+            assertEquals(regex, expectedDirs, list("**/" + regex, FileUtility.SEARCH_TYPE_DIR, 1));
+            assertEquals(regex, expectedDirs, list("**/" + regex, FileUtility.SEARCH_TYPE_DIR, 4));
+        }
+    }
+    
+    @Test
+    public void testLiteralDirs() throws Exception {
+        assertEquals(
+            Arrays.asList(path("src/jp/A.java16"), path("src/jp/sub/B.java16")),
+            list("src/jp/**/.*\\.java16", FileUtility.SEARCH_TYPE_FILE, 1)
+        );
+        assertEquals(
+            Arrays.asList(path("src/jp/A.java16")),
+            list("src/jp/.*\\.java16", FileUtility.SEARCH_TYPE_FILE, 1)
+        );
+    }
+    
+    @Test
+    public void testAnyDirsInMiddle() throws Exception {
+        assertEquals(
+            Arrays.asList(path("src/jp/A.java16"), path("src/org/jp/E.java16")),
+            list("src/**/jp/.*\\.java16", FileUtility.SEARCH_TYPE_FILE, 1)
+        );
+        assertEquals(
+            Arrays.asList(path("src/jp/A.java16"), path("src/org/jp/E.java16")),
+            list("src/**/jp/.*\\.java16", FileUtility.SEARCH_TYPE_FILE, 4)
+        );
+    }
+    
+    @Test
+    public void testRegexDirs() throws Exception {
+        assertEquals(
+            Arrays.asList(path("src/jp/A.java16"), path("src/org/D.java16")),
+            sorted(list("src/(jp|org)/.*\\.java16", FileUtility.SEARCH_TYPE_FILE, 1))
+        );
+    }
+    
+    @Test
+    public void testExistingFile() throws Exception {
+        assertEquals(
+            Arrays.asList(path("src/jp/A.java16")),
+            list("src/jp/A.java16", FileUtility.SEARCH_TYPE_FILE, 1)
+        );
+        assertEquals(
+            new ArrayList<String>(),
+            list("src/jp/A.java16", FileUtility.SEARCH_TYPE_DIR, 1)
+        );
+        assertEquals(
+            new ArrayList<String>(),
+            list("none/**/.*", FileUtility.SEARCH_TYPE_FILE, 1)
+        );
+    }
+    
+    @Test
+    public void testVisitedDirs() throws Exception {
+        // 一致する可能性のないサブディレクトリは走査しない
+        final Map<File, Long> visitedDirs = new HashMap<File, Long>();
+        new FileUtility(root.getPath()).listAllTreeFiles("src/jp/**/.*\\.java16", FileUtility.SEARCH_TYPE_FILE, 1, visitedDirs);
+        assertEquals(2, visitedDirs.size());
+        assertTrue(visitedDirs.containsKey(new File(root, "src/jp")));
+        assertTrue(visitedDirs.containsKey(new File(root, "src/jp/sub")));
+        assertEquals(Long.valueOf(new File(root, "src/jp/sub").lastModified()), visitedDirs.get(new File(root, "src/jp/sub")));
+        
+        final Map<File, Long> parallelVisitedDirs = new ConcurrentHashMap<File, Long>();
+        new FileUtility(root.getPath()).listAllTreeFiles("src/jp/**/.*\\.java16", FileUtility.SEARCH_TYPE_FILE, 4, parallelVisitedDirs);
+        assertEquals(visitedDirs, parallelVisitedDirs);
+        
+        final Map<File, Long> notVisitedDirs = new HashMap<File, Long>();
+        new FileUtility(root.getPath()).listAllTreeFiles("src/jp/A.java16", FileUtility.SEARCH_TYPE_FILE, 1, notVisitedDirs);
+        assertTrue(notVisitedDirs.isEmpty());
+        assertFalse(visitedDirs.containsKey(new File(root, "src/org")));
+    }
+    
+    private List<String> list(String regexPath, int searchType, int parallelism) {
+        final File[] files = new FileUtility(root.getPath()).listAllTreeFiles(regexPath, searchType, parallelism);
+        final List<String> result = new ArrayList<String>();
+        for (File f : files) {
+            result.add(f.getPath());
+        }
+        return result;
+    }
+    
+    private String path(String name) {
+        return new File(root, name).getPath();
+    }
+    
+    private void file(String name) throws Exception {
+        final File f = new File(root, name);
+        f.getParentFile().mkdirs();
+        f.createNewFile();
+    }
+    
+    private static List<String> sorted(List<String> list) {
+        final List<String> result = new ArrayList<String>(list);
+        Collections.sort(result);
+        return result;
+    }
+    
+    private static void createTree(File dir, Random random, int depth) throws Exception {
+        dir.mkdirs();
+        for (int i = random.nextInt(4); i >= 0; i--) {
+            new File(dir, "f" + random.nextInt(100) + (random.nextBoolean() ? ".java16" : ".txt")).createNewFile();
+        }
+        if (depth < 4) {
+            for (int i = random.nextInt(4); i > 0; i--) {
+                createTree(new File(dir, "d" + random.nextInt(100)), random, depth + 1);
+            }
+        }
+    }
+    
+    /**
+     * 従来の{@link FileUtility#listAllTreeFiles(FilenameFilter, int)}と同じく、幅優先でディレクトリを走査する。<p>
+     */
+    private static List<String> breadthFirst(File dir, String regex, int searchType) {
+        final FilenameFilter filter = new FileFilter(regex);
+        final List<String> result = new ArrayList<String>();
+        final LinkedList<File> dirs = new LinkedList<File>();
+        dirs.add(dir);
+        while (!dirs.isEmpty()) {
+            final File[] list = dirs.removeFirst().listFiles();
+            for (File f : list) {
+                final boolean isDir = f.isDirectory();
+                if (isDir) {
+                    dirs.add(f);
+                }
+                if (searchType == FileUtility.SEARCH_TYPE_FILE ? isDir : !isDir) {
+                    continue;
+                }
+                if (filter.accept(f.getParentFile(), f.getName())) {
+                    result.add(f.getPath());
+                }
+            }
+        }
+        return result;
+    }
+}
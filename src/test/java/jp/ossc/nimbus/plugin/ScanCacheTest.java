@@ -0,0 +1,214 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link ScanCache}のテスト。<p>
+ * 統計情報のヒット数とミス数で、キャッシュした値を使用したかどうかを確認する。<br>
+ */
+public class ScanCacheTest {
+    
+    private static final long TIME = 1500000000000L;
+    
+    private static final String CONFIG_KEY = "config";
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File root;
+    
+    private File dir;
+    
+    private File file;
+    
+    @Before
+    public void setUp() throws Exception {
+        root = folder.newFolder("src");
+        dir = new File(root, "jp/ossc");
+        dir.mkdirs();
+        file = new File(dir, "A.java16");
+        write(file, "class A {}", TIME);
+        new File(root, "jp/B.java16").createNewFile();
+        setDirsLastModified(root, TIME);
+    }
+    
+    @Test
+    public void testListingCached() throws Exception {
+        final ScanCache cache = new ScanCache();
+        final File[] files = list(cache);
+        assertEquals(2, files.length);
+        assertEquals(Arrays.asList(files), Arrays.asList(list(cache)));
+        assertStatistics(cache, "listing hits=1 misses=1");
+    }
+    
+    @Test
+    public void testListingInvalidatedByDirectoryChange() throws Exception {
+        // 深い階層のディレクトリにファイルを追加した場合も、そのディレクトリの最終更新日時で変更を検出する
+        final ScanCache cache = new ScanCache();
+        list(cache);
+        new File(dir, "C.java16").createNewFile();
+        dir.setLastModified(TIME + 1000L);
+        assertEquals(3, list(cache).length);
+        assertEquals(3, list(cache).length);
+        assertStatistics(cache, "listing hits=1 misses=2");
+    }
+    
+    @Test
+    public void testListingNewDirectory() throws Exception {
+        final ScanCache cache = new ScanCache();
+        list(cache);
+        final File newDir = new File(root, "jp/ossc/sample");
+        newDir.mkdirs();
+        new File(newDir, "D.java16").createNewFile();
+        setDirsLastModified(root, TIME + 1000L);
+        assertEquals(3, list(cache).length);
+        assertStatistics(cache, "listing hits=0 misses=2");
+    }
+    
+    @Test
+    public void testRacyListingNotCached() throws Exception {
+        // 走査の直前に変更されたディレクトリは、同じ最終更新日時のまま変更される可能性があるためキャッシュしない
+        final ScanCache cache = new ScanCache();
+        dir.setLastModified(System.currentTimeMillis());
+        list(cache);
+        list(cache);
+        assertStatistics(cache, "listing hits=0 misses=2");
+    }
+    
+    @Test
+    public void testHash() throws Exception {
+        final ScanCache cache = new ScanCache();
+        assertEquals(FingerprintIndex.hash(file), cache.hash(file));
+        assertEquals(FingerprintIndex.hash(file), cache.hash(file));
+        assertStatistics(cache, "hash hits=1 misses=1");
+        
+        // サイズが変わった場合
+        write(file, "class A { int a; }", TIME);
+        assertEquals(FingerprintIndex.hash(file), cache.hash(file));
+        
+        // サイズが同じで最終更新日時が変わった場合
+        write(file, "class A { int b; }", TIME + 1000L);
+        assertEquals(FingerprintIndex.hash(file), cache.hash(file));
+        assertStatistics(cache, "hash hits=1 misses=3");
+    }
+    
+    @Test
+    public void testRacyHashNotCached() throws Exception {
+        final ScanCache cache = new ScanCache();
+        file.setLastModified(System.currentTimeMillis());
+        cache.hash(file);
+        cache.hash(file);
+        assertStatistics(cache, "hash hits=0 misses=2");
+    }
+    
+    @Test
+    public void testConditions() throws Exception {
+        final ScanCache cache = new ScanCache();
+        final List<VersionCondition> conditions = Arrays.asList(VersionCondition.compile("// 8 <= JAVA_VERSION", "JAVA_VERSION"));
+        assertNull(cache.getConditions(file, CONFIG_KEY, TIME, file.length()));
+        cache.putConditions(file, CONFIG_KEY, TIME, file.length(), System.currentTimeMillis(), conditions);
+        assertEquals(conditions, cache.getConditions(file, CONFIG_KEY, TIME, file.length()));
+        
+        // 最終更新日時、サイズ、または設定値が異なる場合は使用しない
+        assertNull(cache.getConditions(file, CONFIG_KEY, TIME + 1000L, file.length()));
+        assertNull(cache.getConditions(file, CONFIG_KEY, TIME, file.length() + 1));
+        assertNull(cache.getConditions(file, "other", TIME, file.length()));
+        assertStatistics(cache, "condition hits=1 misses=4");
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testConditionsUnmodifiable() throws Exception {
+        final ScanCache cache = new ScanCache();
+        cache.putConditions(file, CONFIG_KEY, TIME, file.length(), System.currentTimeMillis(), new ArrayList<VersionCondition>());
+        cache.getConditions(file, CONFIG_KEY, TIME, file.length()).add(VersionCondition.compile("// 8 <= JAVA_VERSION", "JAVA_VERSION"));
+    }
+    
+    @Test
+    public void testRacyConditionsNotCached() throws Exception {
+        // 読み込みの直前に変更されたファイルは、同じ最終更新日時のまま変更される可能性があるためキャッシュしない
+        final ScanCache cache = new ScanCache();
+        final long readTime = System.currentTimeMillis();
+        final List<VersionCondition> conditions = Arrays.asList(VersionCondition.compile("// 8 <= JAVA_VERSION", "JAVA_VERSION"));
+        cache.putConditions(file, CONFIG_KEY, readTime - 1000L, file.length(), readTime, conditions);
+        assertNull(cache.getConditions(file, CONFIG_KEY, readTime - 1000L, file.length()));
+        cache.putConditions(file, CONFIG_KEY, 0L, file.length(), readTime, conditions);
+        assertNull(cache.getConditions(file, CONFIG_KEY, 0L, file.length()));
+    }
+    
+    @Test
+    public void testGetInstance() {
+        final Object session = new Object();
+        final ScanCache cache = ScanCache.getInstance(session);
+        assertTrue(cache == ScanCache.getInstance(session));
+        assertTrue(cache != ScanCache.getInstance(new Object()));
+    }
+    
+    private File[] list(ScanCache cache) {
+        final File[] files = cache.listAllTreeFiles(root, "**/.*\\\\.java16", FileUtility.SEARCH_TYPE_FILE, 1);
+        assertEquals(files.length, new HashSet<File>(Arrays.asList(files)).size());
+        return files;
+    }
+    
+    private static void assertStatistics(ScanCache cache, String expected) {
+        final String statistics = cache.getStatistics();
+        assertTrue(statistics, statistics.indexOf(expected) != -1);
+    }
+    
+    private static void setDirsLastModified(File dir, long lastModified) {
+        for (File child : dir.listFiles()) {
+            if (child.isDirectory()) {
+                setDirsLastModified(child, lastModified);
+            }
+        }
+        dir.setLastModified(lastModified);
+    }
+    
+    private static void write(File file, String content, long lastModified) throws Exception {
+        FileUtility.dataWrite(content.getBytes("UTF-8"), file);
+        file.setLastModified(lastModified);
+    }
+}
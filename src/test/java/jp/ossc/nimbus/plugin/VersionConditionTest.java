@@ -0,0 +1,225 @@
+/*
+ * This software is distributed under following license based on modified BSD
+ * style license.
+ * ----------------------------------------------------------------------
+ * 
+ * Copyright 2003 The Nimbus Project. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE NIMBUS PROJECT ``AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN
+ * NO EVENT SHALL THE NIMBUS PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of the Nimbus Project.
+ */
+package jp.ossc.nimbus.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link VersionCondition}のテスト。<p>
+ */
+public class VersionConditionTest {
+    
+    private static final String CHECK_TARGET = "JAVA_VERSION";
+    
+    private static final String[] OPERATORS = {"", "<", "<=", "=", "<<", "=<", "=="};
+    
+    @Test
+    public void testIsSatisfied() throws Exception {
+        final VersionCondition range = VersionCondition.compile("// 8 <= JAVA_VERSION < 11", CHECK_TARGET);
+        assertFalse(range.isSatisfied(7));
+        assertTrue(range.isSatisfied(8));
+        assertTrue(range.isSatisfied(10));
+        assertFalse(range.isSatisfied(11));
+        
+        final VersionCondition lower = VersionCondition.compile("// 17 < JAVA_VERSION", CHECK_TARGET);
+        assertFalse(lower.isSatisfied(17));
+        assertTrue(lower.isSatisfied(18));
+        
+        final VersionCondition upper = VersionCondition.compile("// JAVA_VERSION <= 11", CHECK_TARGET);
+        assertTrue(upper.isSatisfied(11));
+        assertFalse(upper.isSatisfied(12));
+        
+        final VersionCondition equal = VersionCondition.compile("// 11 = JAVA_VERSION", CHECK_TARGET);
+        assertTrue(equal.isSatisfied(11));
+        assertFalse(equal.isSatisfied(17));
+    }
+    
+    @Test
+    public void testInvalid() throws Exception {
+        assertInvalid("// JAVA_VERSION");
+        assertInvalid("// 8 JAVA_VERSION 11");
+        assertInvalid("// 8 <= JAVA_VERSION < 11 JAVA_VERSION 17");
+    }
+    
+    @Test
+    public void testCached() throws Exception {
+        assertSame(
+            VersionCondition.compile("// 8 <= JAVA_VERSION < 21", CHECK_TARGET),
+            VersionCondition.compile("// 8 <= JAVA_VERSION < 21", CHECK_TARGET)
+        );
+    }
+    
+    @Test
+    public void testSameAsLegacy() throws Exception {
+        final Random random = new Random(6);
+        for (int n = 0; n < 20000; n++) {
+            final String line = randomLine(random);
+            VersionCondition condition = null;
+            try {
+                condition = VersionCondition.compile(line, CHECK_TARGET);
+            } catch (IllegalArgumentException e) {
+            }
+            for (int version = 0; version < 32; version++) {
+                Boolean expected = null;
+                try {
+                    expected = Boolean.valueOf(isSatisfiedLegacy(line, version));
+                } catch (Exception e) {
+                }
+                if (expected == null) {
+                    assertEquals(line, null, condition);
+                    break;
+                }
+                assertEquals(line + " version=" + version, expected.booleanValue(), condition.isSatisfied(version));
+            }
+        }
+    }
+    
+    @Test
+    public void testBounds() throws Exception {
+        // 全ての境界バージョンとの大小関係が同じ2つのバージョンは、判定結果も同じになる
+        final Random random = new Random(23);
+        for (int n = 0; n < 5000; n++) {
+            final String line = randomLine(random);
+            final VersionCondition condition;
+            try {
+                condition = VersionCondition.compile(line, CHECK_TARGET);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            final Set<String> bounds = new HashSet<String>();
+            condition.addBounds(bounds);
+            for (int version1 = 0; version1 < 32; version1++) {
+                for (int version2 = version1 + 1; version2 < 32; version2++) {
+                    boolean isSameOrder = true;
+                    for (String bound : bounds) {
+                        final int b = Integer.parseInt(bound);
+                        if (Integer.signum(version1 - b) != Integer.signum(version2 - b)) {
+                            isSameOrder = false;
+                            break;
+                        }
+                    }
+                    if (isSameOrder) {
+                        assertEquals(line, condition.isSatisfied(version1), condition.isSatisfied(version2));
+                    }
+                }
+            }
+        }
+    }
+    
+    private static void assertInvalid(String line) {
+        try {
+            VersionCondition.compile(line, CHECK_TARGET);
+            fail(line);
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    private static String randomLine(Random random) {
+        final StringBuilder sb = new StringBuilder("//");
+        if (random.nextBoolean()) {
+            sb.append(' ').append(random.nextInt(30));
+        }
+        sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+        sb.append(CHECK_TARGET);
+        sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]);
+        if (random.nextBoolean()) {
+            sb.append(' ').append(random.nextInt(30));
+        }
+        if (random.nextInt(10) == 0) {
+            sb.append(" comment");
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 変更前のCopyMojoが行っていた条件行の判定。<p>
+     */
+    private static boolean isSatisfiedLegacy(String line, int version) throws Exception {
+        final String[] conditions = line.split(CHECK_TARGET);
+        if (conditions.length != 1 && conditions.length != 2) {
+            throw new Exception("Version condition is invalid. condition=" + line);
+        }
+        final String[] low = parseLegacy(conditions[0]);
+        final String[] high = conditions.length == 2 ? parseLegacy(conditions[1]) : null;
+        if (low == null && high == null) {
+            throw new Exception("Version condition is invalid. condition=" + line);
+        }
+        boolean isCopyTarget = true;
+        if (low != null) {
+            final int lowVersion = Integer.parseInt(low[0]);
+            if ("<=".equals(low[1])) {
+                isCopyTarget = lowVersion <= version;
+            } else if ("<".equals(low[1])) {
+                isCopyTarget = lowVersion < version;
+            } else if ("=".equals(low[1])) {
+                isCopyTarget = lowVersion == version;
+            }
+        }
+        if (high != null) {
+            final int highVersion = Integer.parseInt(high[0]);
+            if ("<=".equals(high[1])) {
+                isCopyTarget = version <= highVersion && isCopyTarget;
+            } else if ("<".equals(high[1])) {
+                isCopyTarget = version < highVersion && isCopyTarget;
+            } else if ("=".equals(high[1])) {
+                isCopyTarget = version == highVersion && isCopyTarget;
+            }
+        }
+        return isCopyTarget;
+    }
+    
+    private static String[] parseLegacy(String bound) {
+        final StringBuilder nsb = new StringBuilder();
+        final StringBuilder csb = new StringBuilder();
+        for (char c : bound.toCharArray()) {
+            if (c >= '0' && c <= '9') {
+                nsb.append(c);
+            } else if (c == '<' || c == '=') {
+                csb.append(c);
+            }
+        }
+        if (nsb.length() == 0 || csb.length() == 0) {
+            return null;
+        }
+        return new String[] {nsb.toString(), csb.toString()};
+    }
+}